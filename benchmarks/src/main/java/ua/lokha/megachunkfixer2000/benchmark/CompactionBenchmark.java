@@ -0,0 +1,55 @@
+package ua.lokha.megachunkfixer2000.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ua.lokha.megachunkfixer2000.RegionFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Очистка неиспользуемого пространства в сильно фрагментированном регионе.
+ * Каждый вызов работает на свежей копии исходного файла
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class CompactionBenchmark {
+
+    @Param({"inPlace", "copy"})
+    public String mode;
+
+    private File source;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        File dir = Fixtures.tempDir();
+        source = Fixtures.region(dir, 42, 0.5);
+        source.deleteOnExit();
+        file = new File(dir, "r.0.1.mca");
+        file.deleteOnExit();
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws IOException {
+        Files.copy(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Benchmark
+    public long compact() {
+        try (RegionFile regionFile = new RegionFile(file)) {
+            if (mode.equals("copy")) {
+                regionFile.clearUnusedSpaceByCopy();
+            } else {
+                regionFile.clearUnusedSpace();
+            }
+        }
+        return file.length();
+    }
+}
@@ -0,0 +1,47 @@
+package ua.lokha.megachunkfixer2000.benchmark;
+
+import ua.lokha.megachunkfixer2000.NBTStreamWriter;
+import ua.lokha.megachunkfixer2000.generator.WorldGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Данные для бенчмарков генерируются на месте через {@link WorldGenerator} и детерминированно от seed,
+ * скачивать ничего не нужно
+ */
+public class Fixtures {
+
+    public static Map<String, Object> chunk(Random random, int chunkX, int chunkZ) {
+        return WorldGenerator.chunk(random, chunkX, chunkZ);
+    }
+
+    public static byte[] serialize(Map<String, Object> chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(100_000);
+        NBTStreamWriter.write(out, chunk, false);
+        return out.toByteArray();
+    }
+
+    /**
+     * Регион r.0.0.mca со всеми 1024 чанками без повреждений.
+     * @param fragmentation доля чанков (0..1), которые будут перезаписаны чанком большего размера
+     */
+    public static File region(File dir, long seed, double fragmentation) throws IOException {
+        WorldGenerator generator = new WorldGenerator();
+        generator.setSeed(seed);
+        generator.setFragmentation(fragmentation);
+        File file = new File(dir, "r.0.0.mca");
+        generator.generateRegion(file, 0, 0, new WorldGenerator.Stats());
+        return file;
+    }
+
+    public static File tempDir() throws IOException {
+        File dir = Files.createTempDirectory("mega-chunk-fixer-bench").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+}
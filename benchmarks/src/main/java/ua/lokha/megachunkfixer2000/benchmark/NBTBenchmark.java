@@ -0,0 +1,67 @@
+package ua.lokha.megachunkfixer2000.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ua.lokha.megachunkfixer2000.NBTProjection;
+import ua.lokha.megachunkfixer2000.NBTStreamReader;
+import ua.lokha.megachunkfixer2000.NBTStreamWriter;
+import ua.lokha.megachunkfixer2000.rule.ChunkRules;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение и запись несжатого NBT одного чанка
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NBTBenchmark {
+
+    /**
+     * Теги, которые читают встроенные правила проверки
+     */
+    private static final NBTProjection PROJECTION = ChunkRules.load(null).getProjection();
+
+    private Map<String, Object> chunk;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws IOException {
+        chunk = Fixtures.chunk(new Random(42), 0, 0);
+        bytes = Fixtures.serialize(chunk);
+    }
+
+    @Benchmark
+    public Map<String, Object> readTree() throws IOException {
+        return NBTStreamReader.read(new ByteArrayInputStream(bytes), false);
+    }
+
+    @Benchmark
+    public Map<String, Object> readProjection() throws IOException {
+        return NBTStreamReader.read(new ByteArrayInputStream(bytes), PROJECTION);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        NBTStreamWriter.write(NullOutputStream.INSTANCE, chunk, false);
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        private static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
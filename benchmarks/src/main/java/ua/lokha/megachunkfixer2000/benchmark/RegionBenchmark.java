@@ -0,0 +1,85 @@
+package ua.lokha.megachunkfixer2000.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ua.lokha.megachunkfixer2000.RegionFile;
+import ua.lokha.megachunkfixer2000.RegionFixer;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Загрузка заголовка, чтение и полная проверка региона с 1024 чанками, файл при этом не меняется ({@code dryRun})
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegionBenchmark {
+
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    private File file;
+    private RegionFixer fixer;
+
+    @Setup
+    public void setup() throws Exception {
+        file = Fixtures.region(Fixtures.tempDir(), 42, 0.3);
+        file.deleteOnExit();
+        fixer = new RegionFixer();
+        fixer.setDryRun(true);
+        fixer.setMapped(mapped);
+    }
+
+    @Benchmark
+    public int validate() throws Exception {
+        return fixer.fix(file);
+    }
+
+    /**
+     * Чтение сжатых данных всех чанков по координатам, по отдельному чтению на чанк
+     */
+    @Benchmark
+    public long readByCoordinates() {
+        long bytes = 0;
+        try (RegionFile regionFile = new RegionFile(file, true, mapped)) {
+            for (int z = 0; z < 32; z++) {
+                for (int x = 0; x < 32; x++) {
+                    RegionFile.ChunkPayload payload = regionFile.readChunkPayload(x, z);
+                    if (payload != null) {
+                        bytes += payload.getData().remaining();
+                        payload.release();
+                    }
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * То же по порядку секторов, соседние чанки читаются одним чтением, см. {@link RegionFile#scanBySector(boolean[])}
+     */
+    @Benchmark
+    public long readBySector() {
+        long bytes = 0;
+        try (RegionFile regionFile = new RegionFile(file, true, mapped)) {
+            for (RegionFile.ScannedChunk scanned : regionFile.scanBySector(null)) {
+                if (scanned.getPayload() != null) {
+                    bytes += scanned.getPayload().getData().remaining();
+                    scanned.getPayload().release();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int loadHeader() {
+        try (RegionFile regionFile = new RegionFile(file, true, mapped)) {
+            return regionFile.getOffsets()[0];
+        }
+    }
+}
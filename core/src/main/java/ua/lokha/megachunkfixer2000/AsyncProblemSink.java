@@ -0,0 +1,163 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.SneakyThrows;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Записывает найденные проблемы в фоновом потоке пачками, чтобы проверка чанков не ждала консоль и диск.
+ * <p>
+ * Каждая проблема попадает в лог на уровне {@link Level#FINE}, то есть только в файл лога, а не в консоль,
+ * и, если указан файл отчета, отдельной строкой в отчет: JSON Lines, или CSV, если файл заканчивается на {@code .csv}.
+ * В консоль в конце выводится только количество проблем по каждой причине, см. {@link #printSummary()}.
+ * <p>
+ * Если очередь переполнена, потоки проверки ждут, пока запись догонит, а не копят события в памяти без предела.
+ */
+public class AsyncProblemSink implements ProblemSink, Closeable {
+
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * Признак конца очереди, после него фоновый поток завершается
+     */
+    private static final ChunkProblem END = new ChunkProblem(0, null, 0, 0, null, null);
+
+    private final BlockingQueue<ChunkProblem> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Map<ChunkProblem.Reason, LongAdder> counts = new EnumMap<>(ChunkProblem.Reason.class);
+    private final Logger logger;
+    private final Writer report;
+    private final boolean csv;
+    private final Thread thread;
+
+    /**
+     * @param reportFile файл отчета, может быть null
+     */
+    @SneakyThrows
+    public AsyncProblemSink(Logger logger, File reportFile) {
+        this.logger = logger;
+        for (ChunkProblem.Reason reason : ChunkProblem.Reason.values()) {
+            counts.put(reason, new LongAdder());
+        }
+        if (reportFile != null) {
+            report = Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8);
+            csv = reportFile.getName().toLowerCase().endsWith(".csv");
+            if (csv) {
+                report.write("time,region,x,z,reason,details\n");
+            }
+        } else {
+            report = null;
+            csv = false;
+        }
+        thread = new WorkerThreadFactory("fixer-problems").newThread(this::run);
+        thread.start();
+    }
+
+    @Override
+    @SneakyThrows
+    public void report(ChunkProblem problem) {
+        counts.get(problem.getReason()).increment();
+        queue.put(problem);
+    }
+
+    @SneakyThrows
+    private void run() {
+        List<ChunkProblem> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            batch.add(queue.take());
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            for (ChunkProblem problem : batch) {
+                if (problem == END) {
+                    this.flush();
+                    return;
+                }
+                this.write(problem);
+            }
+            this.flush();
+            batch.clear();
+        }
+    }
+
+    private void write(ChunkProblem problem) {
+        logger.fine(problem.toMessage());
+        if (report == null) {
+            return;
+        }
+        try {
+            if (csv) {
+                report.write(problem.getTime() + "," + problem.getRegion() + "," + problem.getX() + "," + problem.getZ() + "," +
+                        problem.getReason() + "," + toCsv(problem.getDetails()) + "\n");
+            } else {
+                report.write("{\"time\": " + problem.getTime() + ", " +
+                        "\"region\": " + Utils.toJsonString(problem.getRegion()) + ", " +
+                        "\"x\": " + problem.getX() + ", \"z\": " + problem.getZ() + ", " +
+                        "\"reason\": \"" + problem.getReason() + "\", " +
+                        "\"details\": " + Utils.toJsonString(problem.getDetails()) + "}\n");
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Не удалось записать проблему в отчет", e);
+        }
+    }
+
+    private void flush() {
+        if (report != null) {
+            Try.ignore(report::flush);
+        }
+    }
+
+    private static String toCsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    public long getCount(ChunkProblem.Reason reason) {
+        return counts.get(reason).sum();
+    }
+
+    /**
+     * Вывести в консоль количество проблем по каждой причине
+     */
+    public void printSummary() {
+        StringBuilder summary = new StringBuilder("Найденные проблемы по причинам:");
+        boolean any = false;
+        for (Map.Entry<ChunkProblem.Reason, LongAdder> entry : counts.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count > 0) {
+                summary.append("\n  ").append(entry.getKey()).append(" (").append(entry.getKey().getDescription()).append("): ").append(count);
+                any = true;
+            }
+        }
+        if (any) {
+            System.out.println(summary);
+        }
+    }
+
+    /**
+     * Дождаться записи всех проблем и закрыть отчет
+     */
+    @Override
+    @SneakyThrows
+    public void close() {
+        queue.put(END);
+        thread.join();
+        if (report != null) {
+            report.close();
+        }
+    }
+}
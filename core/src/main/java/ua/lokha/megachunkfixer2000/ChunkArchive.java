@@ -0,0 +1,225 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Архив чанков, удаленных за один запуск, для {@code --archive}: вместо копии всего мира перед исправлением
+ * сохраняются только те чанки, которые утилита удаляет.
+ * <p>
+ * Чанки копируются в файл архива в том виде, в каком лежали в регионе (длина, версия сжатия и сжатые данные),
+ * без распаковки и без буферов в куче, см. {@link RegionFile#transferChunkTo}. В индекс рядом, в файл {@code .idx},
+ * для каждого чанка пишется регион, координаты, время изменения, место в архиве и причина удаления.
+ * Оба файла только дописываются, поэтому при прерывании в архиве остаются все чанки, удаленные до этого.
+ * <p>
+ * Вернуть чанки на место можно через {@link #restore(File, List)}, в утилите это {@code --restore}.
+ */
+public class ChunkArchive implements Closeable {
+
+    private static final int MAGIC = 0x4D434641; // MCFA
+    private static final int VERSION = 1;
+
+    /**
+     * Подробности причины длиннее этого обрезаются, {@link DataOutputStream#writeUTF} не пишет строки больше 64 KB
+     */
+    private static final int MAX_DETAILS_LENGTH = 1000;
+
+    @Getter
+    private final File file;
+    private final FileChannel data;
+    private final DataOutputStream index;
+
+    @Getter
+    private final AtomicInteger chunks = new AtomicInteger();
+    @Getter
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Создать новый архив. Существующий архив не перезаписывается, чтобы случайно не потерять чанки прошлого запуска
+     */
+    @SneakyThrows
+    public ChunkArchive(File file) {
+        this.file = file.getAbsoluteFile();
+        if (file.exists() || getIndexFile(file).exists()) {
+            throw new RuntimeException("Архив " + this.file + " уже существует, укажите другой файл.");
+        }
+        data = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile(file))));
+        index.writeInt(MAGIC);
+        index.writeInt(VERSION);
+        index.flush();
+    }
+
+    /**
+     * Сохранить чанк перед удалением, вызывается до {@link RegionFile#deleteChunk(int, int)}, пока сектора чанка не заняты другими данными
+     * @return false, если чанка нет в регионе или его сектора за концом файла, сохранять нечего
+     */
+    public synchronized boolean add(RegionFile regionFile, ChunkProblem problem) throws IOException {
+        int x = problem.getX();
+        int z = problem.getZ();
+        long position = bytes.get();
+        int count = regionFile.transferChunkTo(x, z, data, position);
+        if (count < 0) {
+            return false;
+        }
+        String details = problem.getDetails() != null ? problem.getDetails() : "";
+        index.writeUTF(regionFile.fileName.getAbsolutePath());
+        index.writeByte(x);
+        index.writeByte(z);
+        index.writeInt(regionFile.getChunkTimestamps()[x + z * 32]);
+        index.writeLong(position);
+        index.writeInt(count);
+        index.writeLong(problem.getTime());
+        index.writeUTF(problem.getReason().name());
+        index.writeUTF(details.length() > MAX_DETAILS_LENGTH ? details.substring(0, MAX_DETAILS_LENGTH) : details);
+        index.flush();
+        bytes.addAndGet(count);
+        chunks.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    @SneakyThrows
+    public synchronized void close() {
+        try {
+            index.close();
+        } finally {
+            data.close();
+        }
+    }
+
+    public static File getIndexFile(File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    /**
+     * Прочитать индекс архива. Если запуск прервали посреди записи индекса, последняя неполная запись пропускается
+     */
+    public static List<Entry> readIndex(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Файл " + getIndexFile(file) + " не является индексом архива чанков");
+            }
+            List<Entry> entries = new ArrayList<>();
+            while (true) {
+                try {
+                    entries.add(new Entry(new File(in.readUTF()), in.readByte(), in.readByte(), in.readInt(),
+                            in.readLong(), in.readInt(), in.readLong(), in.readUTF(), in.readUTF()));
+                } catch (EOFException e) {
+                    return entries;
+                }
+            }
+        }
+    }
+
+    /**
+     * Вернуть чанки из архива в их регионы. Каждый регион открывается один раз, а его заголовок записывается при закрытии.
+     * Чанк возвращается, только если его место в регионе свободно: если сервер уже создал там новый чанк, он не перезаписывается.
+     * Если регион был удален, он создается заново
+     * @return записи, чанки которых возвращены
+     */
+    public static List<Entry> restore(File file, List<Entry> entries) throws IOException {
+        Map<File, List<Entry>> byRegion = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            byRegion.computeIfAbsent(entry.getRegion(), region -> new ArrayList<>()).add(entry);
+        }
+
+        List<Entry> restored = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (Map.Entry<File, List<Entry>> region : byRegion.entrySet()) {
+                region.getKey().getParentFile().mkdirs();
+                try (RegionFile regionFile = new RegionFile(region.getKey())) {
+                    for (Entry entry : region.getValue()) {
+                        if (regionFile.hasChunk(entry.getX(), entry.getZ())) {
+                            continue;
+                        }
+                        regionFile.writeRawChunk(entry.getX(), entry.getZ(), in, entry.getPosition(), entry.getLength(), entry.getTimestamp());
+                        restored.add(entry);
+                    }
+                }
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Фильтр записей для {@code --restore-filter}: через запятую причины удаления ({@code WRONG_POS}),
+     * имена регионов ({@code r.0.0.mca}) и отдельные чанки ({@code r.0.0.mca:3:17}). Запись подходит, если подходит
+     * хотя бы под одну из указанных причин и хотя бы под один из указанных регионов или чанков
+     */
+    public static Predicate<Entry> filter(String spec) {
+        Set<String> reasons = new HashSet<>();
+        Set<String> chunks = new HashSet<>();
+        for (String item : spec.split(",")) {
+            item = item.trim();
+            if (item.isEmpty()) {
+                continue;
+            }
+            try {
+                reasons.add(ChunkProblem.Reason.valueOf(item).name());
+            } catch (IllegalArgumentException e) {
+                chunks.add(item);
+            }
+        }
+        return entry -> (reasons.isEmpty() || reasons.contains(entry.getReason()))
+                && (chunks.isEmpty() || chunks.contains(entry.getRegion().getName())
+                || chunks.contains(entry.getRegion().getName() + ":" + entry.getX() + ":" + entry.getZ()));
+    }
+
+    /**
+     * Чанк в архиве
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final File region;
+        private final int x;
+        private final int z;
+
+        /**
+         * Время изменения чанка из заголовка региона, возвращается вместе с чанком
+         */
+        private final int timestamp;
+
+        /**
+         * Где в файле архива начинается чанк и сколько байт занимает вместе с длиной и версией сжатия
+         */
+        private final long position;
+        private final int length;
+
+        /**
+         * Когда чанк был удален
+         */
+        private final long time;
+        private final String reason;
+        private final String details;
+
+        public String toMessage() {
+            return "Чанк file=" + region + " x=" + x + " z=" + z + ", удален по причине " + reason +
+                    (!details.isEmpty() ? " (" + details + ")" : "");
+        }
+    }
+}
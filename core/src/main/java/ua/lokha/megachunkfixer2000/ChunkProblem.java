@@ -0,0 +1,74 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Найденная в чанке проблема, из-за которой чанк удаляется
+ */
+@Getter
+@AllArgsConstructor
+public class ChunkProblem {
+
+    @Getter
+    @AllArgsConstructor
+    public enum Reason {
+        READ_ERROR("данные чанка не удалось считать", true),
+        PARSE_ERROR("ошибка распаковки или разбора NBT", true),
+        CHECK_ERROR("ошибка при проверке чанка", false),
+        STRUCTURE("поврежден заголовок чанка или региона", true),
+        WRONG_POS("чанк находится не на тех координатах", true),
+        MISSING_BLOCKS("в секции отсутствует массив Blocks", true),
+        MISSING_DATA("в секции отсутствует массив Data", true),
+        MISSING_SKYLIGHT("в секции отсутствует массив SkyLight", true),
+        MISSING_BLOCKLIGHT("в секции отсутствует массив BlockLight", true),
+        BAD_BLOCKS_LENGTH("массив Blocks неправильной длины, а нужно 4096", true),
+        BAD_DATA_LENGTH("массив Data неправильной длины, а нужно 2048", true),
+        BAD_BLOCKLIGHT_LENGTH("массив BlockLight неправильной длины, а нужно 2048", true),
+        BAD_SKYLIGHT_LENGTH("массив SkyLight неправильной длины, а нужно 2048", true),
+        BAD_ADD_LENGTH("массив Add неправильной длины, а нужно 2048", true),
+        BAD_BLOCK_STATES_LENGTH("массив BlockStates слишком короткий, а нужно минимум 256", true),
+        BAD_SECTION("ошибка при обработке секции", false),
+        DELETE_ERROR("не удалось удалить чанк", false),
+        /**
+         * Проблема из подключенного правила {@link ua.lokha.megachunkfixer2000.rule.ChunkRule}, подробности пишет само правило
+         */
+        CUSTOM("чанк не прошел дополнительную проверку", true),
+        ;
+
+        private final String description;
+
+        /**
+         * Из-за этой проблемы чанк удаляется, остальные только сообщаются
+         */
+        private final boolean fatal;
+    }
+
+    private final long time;
+
+    /**
+     * Имя файла региона
+     */
+    private final String region;
+    private final int x;
+    private final int z;
+    private final Reason reason;
+
+    /**
+     * Подробности: секция, длина массива, координаты, текст ошибки. Может быть null
+     */
+    private final String details;
+
+    public ChunkProblem(String region, int x, int z, Reason reason, String details) {
+        this(System.currentTimeMillis(), region, x, z, reason, details);
+    }
+
+    /**
+     * Сообщение для лога в том же виде, в каком утилита всегда писала о кривых чанках
+     */
+    public String toMessage() {
+        return "Чанк file=" + region + " x=" + x + " z=" + z + ": " + reason.getDescription() +
+                (details != null ? " (" + details + ")" : "") + "." +
+                (reason.isFatal() ? " Удаляем чанк..." : "");
+    }
+}
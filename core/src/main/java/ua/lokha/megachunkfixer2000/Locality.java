@@ -0,0 +1,83 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.Getter;
+
+import java.util.Locale;
+
+/**
+ * Насколько близко в файле лежат соседние на карте чанки: для каждой пары соседей по X и по Z, которые оба есть в регионе,
+ * берется расстояние между их первыми секторами. Пары ближе {@link #NEAR_SECTORS} попадают в одно упреждающее чтение
+ * диска, поэтому сервер, загружая область вокруг игрока, читает файл почти последовательно.
+ * <p>
+ * Можно складывать замеры нескольких регионов через {@link #add(Locality)}.
+ */
+@Getter
+public class Locality {
+
+    /**
+     * 128 KB, типичный размер упреждающего чтения
+     */
+    public static final int NEAR_SECTORS = 32;
+
+    private long pairs;
+    private long distance;
+    private long near;
+
+    public static Locality measure(RegionFile regionFile) {
+        Locality locality = new Locality();
+        int[] offsets = regionFile.getOffsets();
+        for (int z = 0; z < 32; z++) {
+            for (int x = 0; x < 32; x++) {
+                int offset = offsets[x + z * 32];
+                if (offset == 0) {
+                    continue;
+                }
+                if (x < 31) {
+                    locality.addPair(offset, offsets[x + 1 + z * 32]);
+                }
+                if (z < 31) {
+                    locality.addPair(offset, offsets[x + (z + 1) * 32]);
+                }
+            }
+        }
+        return locality;
+    }
+
+    private void addPair(int offset, int neighbour) {
+        if (neighbour == 0) {
+            return;
+        }
+        long sectors = Math.abs((offset >> 8) - (neighbour >> 8));
+        pairs++;
+        distance += sectors;
+        if (sectors <= NEAR_SECTORS) {
+            near++;
+        }
+    }
+
+    public synchronized void add(Locality other) {
+        pairs += other.pairs;
+        distance += other.distance;
+        near += other.near;
+    }
+
+    /**
+     * Среднее расстояние между соседями в секторах
+     */
+    public synchronized double getAverageDistance() {
+        return pairs == 0 ? 0 : (double) distance / pairs;
+    }
+
+    /**
+     * Процент пар соседей, которые лежат не дальше {@link #NEAR_SECTORS} друг от друга
+     */
+    public synchronized double getNearPercent() {
+        return pairs == 0 ? 0 : 100.0 * near / pairs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "%.1f секторов между соседями в среднем, %.1f%% соседей ближе 128KB",
+                this.getAverageDistance(), this.getNearPercent());
+    }
+}
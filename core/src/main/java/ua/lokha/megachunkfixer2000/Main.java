@@ -0,0 +1,388 @@
+package ua.lokha.megachunkfixer2000;
+
+import ua.lokha.megachunkfixer2000.logger.LoggerInstaller;
+import ua.lokha.megachunkfixer2000.rule.ChunkRules;
+
+import java.io.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+@SuppressWarnings({"UtilityClassCanBeEnum", "UtilityClass"})
+public class Main {
+
+    private static DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
+
+    public static void main(String[] args) throws Exception {
+
+        final Logger logger = LoggerInstaller.create("mega-chunk-fixer-2000", "mega-chunk-fixer-2000.log");
+        logger.info("Старт исправления чанков " + dateFormat.format(new Date()));
+
+        ParseArgs parseArgs = ParseArgs.parse(args);
+        String restore = parseArgs.getFlagValue("--restore");
+        if (restore != null) {
+            restore(new File(restore), parseArgs.getFlagValue("--restore-filter"), parseArgs.hasFlag("--dry-run"));
+            return;
+        }
+        boolean recursive = parseArgs.hasFlag("--recursive");
+        boolean cleanUnusedSpace = parseArgs.hasFlag("--clean-unused-space");
+        String cleanUnusedSpaceMode = parseArgs.getFlagValue("--clean-unused-space");
+        if (cleanUnusedSpaceMode != null && !cleanUnusedSpaceMode.equals("copy") && !cleanUnusedSpaceMode.equals("morton")) {
+            throw new RuntimeException("Неизвестный способ очистки --clean-unused-space=" + cleanUnusedSpaceMode + ", доступны copy и morton.");
+        }
+        boolean morton = "morton".equals(cleanUnusedSpaceMode);
+        boolean deleteEmptyRegions = parseArgs.hasFlag("--delete-empty-regions");
+        boolean parallelChunks = parseArgs.hasFlag("--parallel-chunks");
+        boolean mapped = parseArgs.hasFlag("--mmap");
+        boolean structuralOnly = parseArgs.hasFlag("--structural-only");
+        boolean dryRun = parseArgs.hasFlag("--dry-run");
+        boolean recompress = parseArgs.hasFlag("--recompress");
+        int recompressLevel = parseArgs.getIntFlag("--recompress", Deflater.BEST_COMPRESSION);
+        if (recompressLevel < 0 || recompressLevel > 9) {
+            throw new RuntimeException("Уровень сжатия --recompress должен быть от 0 до 9, а указано " + recompressLevel + ".");
+        }
+        boolean stats = parseArgs.hasFlag("--stats");
+        String statsFile = parseArgs.getFlagValue("--stats");
+        int statsInterval = parseArgs.getIntFlag("--stats-interval", 10);
+        String reportFile = parseArgs.getFlagValue("--report");
+        boolean incremental = parseArgs.hasFlag("--incremental");
+        String incrementalDir = parseArgs.getFlagValue("--incremental");
+        int threads = parseArgs.getIntFlag("--threads", Runtime.getRuntime().availableProcessors());
+        if (threads < 1) {
+            throw new RuntimeException("Флаг --threads должен быть больше нуля, а указано " + threads + ".");
+        }
+        boolean maxMemory = parseArgs.hasFlag("--max-memory");
+        String maxMemoryValue = parseArgs.getFlagValue("--max-memory");
+        // без значения - 3/4 кучи, остальное под все, что не учитывается: индексы регионов, пулы буферов, очереди
+        long maxMemoryBytes = maxMemoryValue != null ? Utils.parseLength(maxMemoryValue) : Runtime.getRuntime().maxMemory() / 4 * 3;
+        if (maxMemory && maxMemoryBytes <= 0) {
+            throw new RuntimeException("Флаг --max-memory должен быть больше нуля, а указано " + maxMemoryValue + ".");
+        }
+        boolean archive = parseArgs.hasFlag("--archive");
+        String archiveFile = parseArgs.getFlagValue("--archive");
+        boolean watch = parseArgs.hasFlag("--watch");
+        int watchDelay = parseArgs.getIntFlag("--watch", 2);
+        if (watch && (cleanUnusedSpace || deleteEmptyRegions || recompress || structuralOnly)) {
+            throw new RuntimeException("Флаг --watch только сообщает о кривых чанках, его нельзя использовать вместе с " +
+                    "--clean-unused-space, --delete-empty-regions, --recompress и --structural-only.");
+        }
+
+        if (cleanUnusedSpace) {
+            System.out.println("Обнаружен флаг --clean-unused-space, будет выполнена очистка неиспользуемого пространства в регионах" +
+                    (morton ? " копированием в новый файл, чанки будут уложены по кривой Мортона, чтобы соседние чанки лежали рядом." :
+                            cleanUnusedSpaceMode != null ? " копированием в новый файл." : "."));
+        }
+        if (deleteEmptyRegions) {
+            System.out.println("Обнаружен флаг --delete-empty-regions, будет выполнено удаление регионов без чанков.");
+        }
+        if (parallelChunks) {
+            System.out.println("Обнаружен флаг --parallel-chunks, чанки внутри региона будут проверяться параллельно.");
+        }
+        if (mapped) {
+            System.out.println("Обнаружен флаг --mmap, регионы будут читаться через отображение файлов в память.");
+        }
+        if (structuralOnly) {
+            System.out.println("Обнаружен флаг --structural-only, будут проверены только заголовки регионов и чанков, без распаковки.");
+        }
+        if (recompress) {
+            System.out.println("Обнаружен флаг --recompress, чанки будут пересжаты с уровнем " + recompressLevel + ", " +
+                    "а регионы переписаны без неиспользуемого пространства.");
+        }
+        if (stats) {
+            System.out.println("Обнаружен флаг --stats, статистика будет выводиться каждые " + statsInterval + " сек, " +
+                    "а в конце записана в файл " + (statsFile != null ? statsFile : "mega-chunk-fixer-2000-stats.json") + ".");
+        }
+        if (dryRun) {
+            System.out.println("Обнаружен флаг --dry-run, файлы регионов не будут изменены, только вывод найденных проблем.");
+        }
+        ScanIndex scanIndex = null;
+        if (incremental) {
+            scanIndex = new ScanIndex(parseArgs.getDir(),
+                    incrementalDir != null ? new File(incrementalDir) : new File(parseArgs.getDir(), ".mega-chunk-fixer"));
+            System.out.println("Обнаружен флаг --incremental, будут проверены только чанки, измененные с прошлой проверки, " +
+                    "индекс хранится в папке " + scanIndex.getIndexDir() + ".");
+        }
+        if (maxMemory) {
+            System.out.println("Обнаружен флаг --max-memory, данные чанков и регионов в обработке будут занимать " +
+                    "не больше " + Utils.toLogLength(maxMemoryBytes) + ", при нехватке потоки будут ждать освобождения памяти.");
+        }
+        if (recursive) {
+            System.out.println("Обнаружен флаг --recursive, регионы будут найдены во всех вложенных папках мира, " +
+                    "включая другие измерения, entities и poi.");
+        }
+        ChunkArchive chunkArchive = null;
+        if (archive && !dryRun && !watch) {
+            chunkArchive = new ChunkArchive(new File(archiveFile != null ? archiveFile :
+                    "mega-chunk-fixer-2000-archive-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".dat"));
+            System.out.println("Обнаружен флаг --archive, удаленные чанки будут сохранены в архив " + chunkArchive.getFile() + ".");
+        }
+        if (watch) {
+            System.out.println("Обнаружен флаг --watch, регионы будут проверяться через " + watchDelay + " сек после того, " +
+                    "как сервер перестал в них писать, без удаления кривых чанков. Для остановки нажмите Ctrl+C.");
+        }
+        System.out.println("Подробности о каждом кривом чанке пишутся только в файл mega-chunk-fixer-2000.log" +
+                (reportFile != null ? " и в отчет " + reportFile : "") + ", в консоль в конце выводится сводка по причинам.");
+        System.out.println("Начинаем фиксить регионы в папке " + parseArgs.getDir() + ", " +
+                (recursive ? "файлы типа *.mca ищутся во время проверки" : "найдено " + parseArgs.getRegions().size() + " файлов типа *.mca") + ", " +
+                "количество потоков " + threads + ".");
+
+        // найденные регионы, при --recursive список растет во время обработки
+        List<File> files = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger deletedTotal = new AtomicInteger();
+        AtomicLong beforeCleanUsedTotal = new AtomicLong();
+        AtomicLong afterCleanUsedTotal = new AtomicLong();
+        AtomicInteger processed = new AtomicInteger();
+
+        RegionFixer fixer = new RegionFixer();
+        fixer.setClearUnusedSpace(cleanUnusedSpace);
+        fixer.setClearUnusedSpaceByCopy(cleanUnusedSpaceMode != null);
+        if (morton) {
+            fixer.setChunkOrder(RegionFile.ChunkOrder.MORTON);
+            fixer.setLocalityBefore(new Locality());
+            fixer.setLocalityAfter(new Locality());
+        }
+        fixer.setDeleteEmptyRegions(deleteEmptyRegions);
+        fixer.setMapped(mapped);
+        fixer.setDryRun(dryRun);
+        fixer.setScanIndex(scanIndex);
+        AsyncProblemSink problemSink = new AsyncProblemSink(logger, reportFile != null ? new File(reportFile) : null);
+        fixer.setProblemSink(problemSink);
+        MemoryBudget memoryBudget = maxMemory ? new MemoryBudget(maxMemoryBytes) : null;
+        fixer.setMemoryBudget(memoryBudget);
+        fixer.setArchive(chunkArchive);
+        String rules = parseArgs.getFlagValue("--rules");
+        if (rules != null) {
+            fixer.setRules(ChunkRules.load(Arrays.asList(rules.split(","))));
+        }
+        System.out.println("Правила проверки чанков: " + String.join(",", fixer.getRules().getNames()) + ", " +
+                "доступны: " + String.join(",", ChunkRules.available().keySet()) + ".");
+        ExecutorService chunkExecutor = null;
+        if (parallelChunks || recompress) {
+            chunkExecutor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory("fixer-chunk"));
+        }
+        if (parallelChunks) {
+            fixer.setChunkExecutor(chunkExecutor);
+        }
+        Recompressor recompressor = null;
+        if (recompress) {
+            recompressor = new Recompressor();
+            recompressor.setLevel(recompressLevel);
+            recompressor.setExecutor(chunkExecutor);
+            recompressor.setMemoryBudget(memoryBudget);
+            recompressor.setOrder(fixer.getChunkOrder());
+            fixer.setRecompressor(recompressor);
+        }
+
+        ScheduledExecutorService statsExecutor = null;
+        if (stats) {
+            Metrics.enable();
+            statsExecutor = Executors.newSingleThreadScheduledExecutor(new WorkerThreadFactory("fixer-stats"));
+            statsExecutor.scheduleAtFixedRate(() -> System.out.println(Metrics.toLiveString(files.size())),
+                    statsInterval, statsInterval, TimeUnit.SECONDS);
+        }
+
+        if (watch) {
+            watch(parseArgs, recursive, fixer, problemSink, watchDelay, parseArgs.hasFlag("--threads") ? threads : Math.min(threads, 2));
+            return;
+        }
+
+        // большие регионы обрабатываем первыми, чтобы в конце не остался один огромный регион на один поток.
+        // Уже запущенные потоки забирают первые регионы сразу, минуя сортировку в очереди, поэтому известный заранее
+        // список сортируется перед отправкой, а очередь с приоритетом по размеру нужна для регионов, найденных по ходу с --recursive
+        int progressStep = recursive ? 100 : parseArgs.getRegions().size() / 10;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), new WorkerThreadFactory("fixer-worker"));
+        executor.prestartAllCoreThreads();
+        BiConsumer<File, Long> submit = (file, size) -> {
+            files.add(file);
+            executor.execute(new RegionTask(size, () -> {
+                long start = System.nanoTime();
+                long length = file.length();
+                try {
+                    if (cleanUnusedSpace || recompress) {
+                        beforeCleanUsedTotal.addAndGet(length);
+                    }
+                    deletedTotal.addAndGet(structuralOnly ? fixer.fixStructure(file) : fixer.fix(file));
+                    if (cleanUnusedSpace || recompress) {
+                        afterCleanUsedTotal.addAndGet(file.length());
+                    }
+                } catch (Exception e) {
+                    System.err.println("Ошибка обработки региона " + file.getName() + "\n" + Utils.toLogStackTrace(e));
+                } finally {
+                    Metrics.addRegion(file.getPath(), System.nanoTime() - start, length);
+                    int done = processed.incrementAndGet();
+                    if (progressStep != 0 && done % progressStep == 0) {
+                        System.out.println("Проверяем регионы " + done + "/" + files.size());
+                    }
+                }
+            }));
+        };
+        if (recursive) {
+            RegionDiscovery.walk(parseArgs.getDir(), submit);
+            System.out.println("Поиск регионов закончен, найдено " + files.size() + " файлов типа *.mca.");
+        } else {
+            Map<File, Long> sizes = new HashMap<>();
+            for (File file : parseArgs.getRegions()) {
+                sizes.put(file, file.length());
+            }
+            sizes.entrySet().stream()
+                    .sorted(Map.Entry.<File, Long>comparingByValue().reversed())
+                    .forEach(entry -> submit.accept(entry.getKey(), entry.getValue()));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        if (chunkExecutor != null) {
+            chunkExecutor.shutdown();
+        }
+        problemSink.close();
+        problemSink.printSummary();
+        if (chunkArchive != null) {
+            chunkArchive.close();
+            System.out.println("Удаленные чанки сохранены в архив " + chunkArchive.getFile() + ": " +
+                    chunkArchive.getChunks().get() + " чанков, " + Utils.toLogLength(chunkArchive.getBytes().get()) + ". " +
+                    "Вернуть их можно через --restore=" + chunkArchive.getFile() + ".");
+        }
+        if (reportFile != null) {
+            System.out.println("Все найденные проблемы записаны в файл " + new File(reportFile).getAbsolutePath() + ".");
+        }
+        if (statsExecutor != null) {
+            statsExecutor.shutdownNow();
+            System.out.println(Metrics.toLiveString(files.size()));
+            File report = new File(statsFile != null ? statsFile : "mega-chunk-fixer-2000-stats.json");
+            Files.write(report.toPath(), Metrics.toJson().getBytes(StandardCharsets.UTF_8));
+            System.out.println("Подробная статистика записана в файл " + report.getAbsolutePath() + ".");
+        }
+
+        if (dryRun) {
+            System.out.println("Всего найдено " + deletedTotal.get() + " кривых чанков.");
+        } else {
+            System.out.println("Всего было удалено " + deletedTotal.get() + " чанков.");
+        }
+        if (memoryBudget != null) {
+            System.out.println("Пик зарезервированной памяти " + Utils.toLogLength(memoryBudget.getPeak()) + " " +
+                    "из " + Utils.toLogLength(memoryBudget.getMaxBytes()) + ", потоки ждали памяти " + memoryBudget.getWaits().sum() + " раз, " +
+                    "NBT в среднем в " + String.format(Locale.ROOT, "%.1f", memoryBudget.getInflationRatio()) + " раз больше сжатых данных.");
+        }
+        if (scanIndex != null) {
+            System.out.println("Пропущено без изменений с прошлой проверки " + scanIndex.getSkippedRegions().get() + " регионов " +
+                    "и еще " + scanIndex.getSkippedChunks().get() + " чанков в измененных регионах.");
+        }
+        if (recompressor != null) {
+            System.out.println("Пересжато " + recompressor.getRecompressed().get() + " чанков, " +
+                    "из них " + recompressor.getConvertedGzip().get() + " из GZIP в deflate, " +
+                    "сжатые данные чанков уменьшились с " + Utils.toLogLength(recompressor.getBytesBefore().get()) + " " +
+                    "до " + Utils.toLogLength(recompressor.getBytesAfter().get()) + " " +
+                    "(-" + Utils.toLogPercent(recompressor.getBytesAfter().get(), recompressor.getBytesBefore().get()) + "%).");
+        }
+        if (cleanUnusedSpace || recompress) {
+            System.out.println("Было очищено пространство " +
+                    "с " + Utils.toLogLength(beforeCleanUsedTotal.get()) + " " +
+                    "до " + Utils.toLogLength(afterCleanUsedTotal.get()) + " " +
+                    "(-" + Utils.toLogPercent(afterCleanUsedTotal.get(), beforeCleanUsedTotal.get()) + "%).");
+        }
+        if (fixer.getLocalityBefore() != null) {
+            System.out.println("Расположение чанков было: " + fixer.getLocalityBefore() + ", стало: " + fixer.getLocalityAfter() + ".");
+        }
+        if (deleteEmptyRegions) {
+            long count = files.stream().filter(File::exists).count();
+            System.out.println("Было удалено " + (files.size() - count) + " пустых регионов, в которых нет ни одного чанка.");
+        }
+    }
+
+    /**
+     * Режим {@code --restore}: вернуть чанки из архива {@code --archive} на их места в регионах
+     */
+    private static void restore(File archive, String filter, boolean dryRun) throws Exception {
+        List<ChunkArchive.Entry> entries = ChunkArchive.readIndex(archive);
+        System.out.println("Обнаружен флаг --restore, в архиве " + archive.getAbsolutePath() + " найдено " + entries.size() + " чанков.");
+        if (filter != null) {
+            entries.removeIf(ChunkArchive.filter(filter).negate());
+            System.out.println("Под фильтр --restore-filter=" + filter + " подходит " + entries.size() + " чанков.");
+        }
+        if (dryRun) {
+            System.out.println("Обнаружен флаг --dry-run, чанки не будут возвращены, только вывод списка.");
+            for (ChunkArchive.Entry entry : entries) {
+                System.out.println(entry.toMessage());
+            }
+            return;
+        }
+
+        Set<ChunkArchive.Entry> restored = new HashSet<>(ChunkArchive.restore(archive, entries));
+        for (ChunkArchive.Entry entry : entries) {
+            if (!restored.contains(entry)) {
+                System.out.println(entry.toMessage() + ", не возвращен, потому что на его месте уже есть новый чанк.");
+            }
+        }
+        System.out.println("Возвращено " + restored.size() + " чанков из " + entries.size() + ".");
+    }
+
+    /**
+     * Режим {@code --watch}: сначала проверяются все регионы, затем только измененные, пока процесс не остановят
+     */
+    private static void watch(ParseArgs parseArgs, boolean recursive, RegionFixer fixer, AsyncProblemSink problemSink,
+                              int delay, int threads) throws Exception {
+        List<File> files = new ArrayList<>(parseArgs.getRegions());
+        Set<File> dirs = new LinkedHashSet<>();
+        dirs.add(parseArgs.getDir());
+        File regionDir = new File(parseArgs.getDir(), "region");
+        if (regionDir.isDirectory()) {
+            dirs.add(regionDir);
+        }
+        if (recursive) {
+            RegionDiscovery.walk(parseArgs.getDir(), (file, size) -> {
+                files.add(file);
+                dirs.add(file.getParentFile());
+            });
+        }
+
+        RegionWatcher watcher = new RegionWatcher(fixer, problemSink, new ArrayList<>(dirs));
+        watcher.setDebounceMillis(TimeUnit.SECONDS.toMillis(delay));
+        watcher.setThreads(threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcher.close();
+            problemSink.close();
+            problemSink.printSummary();
+            System.out.println("Наблюдение остановлено, выполнено " + watcher.getCheckedRegions().get() + " проверок регионов, " +
+                    "найдено " + watcher.getFoundProblems().get() + " кривых чанков.");
+        }));
+        System.out.println("Следим за папками " + dirs + ", количество потоков проверки " + threads + ".");
+        watcher.run(files);
+    }
+
+    /**
+     * Задача обработки региона, в очереди пула большие регионы идут первыми
+     */
+    private static class RegionTask implements Runnable, Comparable<RegionTask> {
+        private final long size;
+        private final Runnable runnable;
+
+        public RegionTask(long size, Runnable runnable) {
+            this.size = size;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        @Override
+        public int compareTo(RegionTask other) {
+            return Long.compare(other.size, size);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограничение памяти под данные, которые обрабатываются одновременно, для {@code --max-memory}.
+ * <p>
+ * Перед чтением чанка резервируется место под сжатые данные и оценку распакованного NBT, перед пересжатием
+ * региона - под все его чанки и новые данные. Если бюджет исчерпан, поток ждет, пока другие потоки освободят память,
+ * поэтому одновременно обрабатывается столько чанков и регионов, сколько помещается в бюджет: на мелких чанках
+ * параллельность полная, а на огромных сама сужается.
+ * <p>
+ * Резервы выдаются строго по очереди, чтобы большой резерв не ждал вечно, пока его обгоняют мелкие.
+ * Резерв больше всего бюджета выдается, когда память свободна полностью, чтобы такой чанк не заблокировал работу навсегда.
+ * <p>
+ * Сверх бюджета каждый поток, который обходит регион, держит буфер группового чтения
+ * {@link RegionFile#SCAN_READ_BYTES} (1 MB): чанки из него копируются только после резерва.
+ * <p>
+ * Во сколько раз NBT больше сжатых данных, заранее неизвестно: до первого мегабайта берется {@link #DEFAULT_INFLATION_RATIO},
+ * дальше средний коэффициент по уже распакованным чанкам.
+ */
+@Getter
+public class MemoryBudget {
+
+    private static final double DEFAULT_INFLATION_RATIO = 4;
+    private static final long MIN_SAMPLE_BYTES = 1_000_000;
+
+    private final long maxBytes;
+
+    @Getter(AccessLevel.NONE)
+    private long used;
+    @Getter(AccessLevel.NONE)
+    private long peak;
+    @Getter(AccessLevel.NONE)
+    private long nextTicket;
+    @Getter(AccessLevel.NONE)
+    private long servingTicket;
+
+    /**
+     * Сколько раз поток ждал освобождения памяти
+     */
+    private final LongAdder waits = new LongAdder();
+
+    @Getter(AccessLevel.NONE)
+    private final LongAdder compressedTotal = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder inflatedTotal = new LongAdder();
+
+    public MemoryBudget(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Зарезервировать память, дождавшись своей очереди и свободного места
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        long ticket = nextTicket++;
+        boolean waited = false;
+        try {
+            while (ticket != servingTicket || used > 0 && used + bytes > maxBytes) {
+                waited = true;
+                this.wait();
+            }
+        } catch (InterruptedException e) {
+            // очередь должна двигаться дальше и без этого потока
+            while (ticket != servingTicket) {
+                this.wait();
+            }
+            servingTicket++;
+            this.notifyAll();
+            throw e;
+        }
+        if (waited) {
+            waits.increment();
+        }
+        servingTicket++;
+        used += bytes;
+        peak = Math.max(peak, used);
+        this.notifyAll();
+    }
+
+    public synchronized void release(long bytes) {
+        used -= bytes;
+        this.notifyAll();
+    }
+
+    /**
+     * Оценка памяти на чанк: сжатые данные и распакованный NBT
+     * @param compressed размер сжатых данных или выделенных чанку секторов
+     */
+    public long estimateChunk(long compressed) {
+        return compressed + (long) (compressed * this.getInflationRatio());
+    }
+
+    public double getInflationRatio() {
+        long compressed = compressedTotal.sum();
+        if (compressed < MIN_SAMPLE_BYTES) {
+            return DEFAULT_INFLATION_RATIO;
+        }
+        return (double) inflatedTotal.sum() / compressed;
+    }
+
+    /**
+     * Поток распакованных данных чанка, который при закрытии учитывает, во сколько раз они больше сжатых
+     */
+    public InputStream counting(InputStream in, long compressed) {
+        return new FilterInputStream(in) {
+            private long inflated;
+
+            @Override
+            public int read() throws IOException {
+                int read = super.read();
+                if (read != -1) {
+                    inflated++;
+                }
+                return read;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    inflated += read;
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                inflated += skipped;
+                return skipped;
+            }
+
+            @Override
+            public void close() throws IOException {
+                compressedTotal.add(compressed);
+                inflatedTotal.add(inflated);
+                super.close();
+            }
+        };
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public synchronized long getPeak() {
+        return peak;
+    }
+}
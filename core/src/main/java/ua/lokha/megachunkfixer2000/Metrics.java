@@ -0,0 +1,335 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Замеры времени по фазам обработки, прочитанных и записанных байт, задержек по регионам, сборок мусора и выделенной памяти.
+ * <p>
+ * По умолчанию выключено: {@link #start(Phase)} возвращает null, а все остальные методы сразу выходят,
+ * поэтому без {@code --stats} остается только проверка одного static поля.
+ * <p>
+ * Время фаз считается без вложенных фаз: например, время {@link Phase#PARSE} не включает распаковку,
+ * которая происходит внутри чтения NBT и считается в {@link Phase#INFLATE}. Поэтому сумма фаз не больше общего времени потоков.
+ */
+public class Metrics {
+
+    public enum Phase {
+        /** чтение сжатых данных чанка с диска */
+        READ,
+        /** распаковка zlib/GZIP */
+        INFLATE,
+        /** разбор NBT */
+        PARSE,
+        /** проверки чанка после разбора */
+        VALIDATE,
+        /** запись чанка в регион */
+        CHUNK_WRITE,
+        /** запись заголовка региона */
+        HEADER_WRITE,
+        /** очистка неиспользуемого пространства */
+        COMPACT,
+        /** сжатие при пересжатии чанков */
+        DEFLATE,
+    }
+
+    private static final int SLOWEST_REGIONS = 10;
+    private static final int HISTOGRAM_BUCKETS = 24;
+
+    private static volatile boolean enabled;
+    private static long startNanos;
+    private static long startGcCount;
+    private static long startGcMillis;
+
+    private static final Map<Phase, LongAdder> phaseNanos = new EnumMap<>(Phase.class);
+    private static final Map<Phase, LongAdder> phaseCount = new EnumMap<>(Phase.class);
+    private static final LongAdder chunks = new LongAdder();
+    private static final LongAdder regions = new LongAdder();
+    private static final LongAdder bytesRead = new LongAdder();
+    private static final LongAdder bytesInflated = new LongAdder();
+    private static final LongAdder bytesWritten = new LongAdder();
+    private static final LongAdder allocatedBytes = new LongAdder();
+
+    /**
+     * Количество регионов по времени обработки, корзина i это от 2^(i-1) до 2^i миллисекунд
+     */
+    private static final AtomicLongArray regionHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private static final PriorityQueue<RegionTime> slowestRegions = new PriorityQueue<>(Comparator.comparingLong(RegionTime::getNanos));
+
+    /**
+     * Время всех законченных замеров этого потока, чтобы внешняя фаза могла вычесть из себя вложенные
+     */
+    private static final ThreadLocal<long[]> threadNestedNanos = ThreadLocal.withInitial(() -> new long[1]);
+    private static final ThreadLocal<long[]> threadAllocated = ThreadLocal.withInitial(() -> new long[1]);
+
+    static {
+        for (Phase phase : Phase.values()) {
+            phaseNanos.put(phase, new LongAdder());
+            phaseCount.put(phase, new LongAdder());
+        }
+    }
+
+    public static void enable() {
+        startNanos = System.nanoTime();
+        startGcCount = gcCount();
+        startGcMillis = gcMillis();
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Начать замер фазы
+     * @return замер, который нужно передать в {@link #stop(Timer)}, либо null, если замеры выключены
+     */
+    public static Timer start(Phase phase) {
+        if (!enabled) {
+            return null;
+        }
+        return new Timer(phase, System.nanoTime(), threadNestedNanos.get()[0]);
+    }
+
+    public static void stop(Timer timer) {
+        if (timer == null) {
+            return;
+        }
+        long[] nested = threadNestedNanos.get();
+        long elapsed = System.nanoTime() - timer.start - (nested[0] - timer.nestedAtStart);
+        add(timer.phase, elapsed);
+        nested[0] += elapsed;
+    }
+
+    private static void add(Phase phase, long nanos) {
+        phaseNanos.get(phase).add(nanos);
+        phaseCount.get(phase).increment();
+    }
+
+    public static void addChunk() {
+        if (enabled) {
+            chunks.increment();
+        }
+    }
+
+    public static void addBytesRead(long bytes) {
+        if (enabled) {
+            bytesRead.add(bytes);
+        }
+    }
+
+    public static void addBytesWritten(long bytes) {
+        if (enabled) {
+            bytesWritten.add(bytes);
+        }
+    }
+
+    /**
+     * Поток распаковки, время чтения из которого считается в {@link Phase#INFLATE}.
+     * Если замеры выключены, возвращается тот же поток
+     */
+    public static InputStream inflating(InputStream in) {
+        if (!enabled) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                Timer timer = start(Phase.INFLATE);
+                int read = super.read();
+                stop(timer);
+                if (read != -1) {
+                    bytesInflated.increment();
+                }
+                return read;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                Timer timer = start(Phase.INFLATE);
+                int read = super.read(b, off, len);
+                stop(timer);
+                if (read > 0) {
+                    bytesInflated.add(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Учесть обработанный регион и память, выделенную текущим потоком с прошлого вызова
+     */
+    public static void addRegion(String name, long nanos, long length) {
+        if (!enabled) {
+            return;
+        }
+        regions.increment();
+        long millis = nanos / 1_000_000;
+        int bucket = millis == 0 ? 0 : Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        regionHistogram.incrementAndGet(bucket);
+        synchronized (slowestRegions) {
+            slowestRegions.add(new RegionTime(name, nanos, length));
+            if (slowestRegions.size() > SLOWEST_REGIONS) {
+                slowestRegions.poll();
+            }
+        }
+        addThreadAllocation();
+    }
+
+    /**
+     * Учесть память, выделенную текущим потоком с прошлого вызова. Вызывается в конце задач в пулах
+     */
+    public static void addThreadAllocation() {
+        if (!enabled) {
+            return;
+        }
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        long allocated = ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        long[] last = threadAllocated.get();
+        if (allocated >= 0) {
+            allocatedBytes.add(allocated - last[0]);
+            last[0] = allocated;
+        }
+    }
+
+    public static long getChunks() {
+        return chunks.sum();
+    }
+
+    public static long getRegions() {
+        return regions.sum();
+    }
+
+    public static long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public static long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Краткая строка для периодического вывода в консоль
+     */
+    public static String toLiveString(int regionsTotal) {
+        double seconds = Math.max(1, getElapsedNanos() / 1_000_000) / 1000.0;
+        return "Статистика: регионов " + getRegions() + "/" + regionsTotal + ", " +
+                "чанков " + getChunks() + " (" + (long) (getChunks() / seconds) + "/сек), " +
+                "прочитано " + Utils.toLogLength(getBytesRead()) + " (" + Utils.toLogLength((long) (getBytesRead() / seconds)) + "/сек), " +
+                "записано " + Utils.toLogLength(bytesWritten.sum()) + ", " +
+                "сборок мусора " + (gcCount() - startGcCount) + " (" + (gcMillis() - startGcMillis) + " мс).";
+    }
+
+    /**
+     * Полный отчет в JSON
+     */
+    public static String toJson() {
+        long elapsed = getElapsedNanos();
+        double seconds = Math.max(1, elapsed / 1_000_000) / 1000.0;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"elapsedMs\": ").append(elapsed / 1_000_000).append(",\n");
+        json.append("  \"regions\": ").append(getRegions()).append(",\n");
+        json.append("  \"chunks\": ").append(getChunks()).append(",\n");
+        json.append("  \"chunksPerSecond\": ").append((long) (getChunks() / seconds)).append(",\n");
+        json.append("  \"bytesRead\": ").append(getBytesRead()).append(",\n");
+        json.append("  \"bytesInflated\": ").append(bytesInflated.sum()).append(",\n");
+        json.append("  \"bytesWritten\": ").append(bytesWritten.sum()).append(",\n");
+        json.append("  \"readMBPerSecond\": ").append(String.format(Locale.ROOT, "%.2f", getBytesRead() / seconds / 1024 / 1024)).append(",\n");
+        json.append("  \"inflatedMBPerSecond\": ").append(String.format(Locale.ROOT, "%.2f", bytesInflated.sum() / seconds / 1024 / 1024)).append(",\n");
+
+        json.append("  \"phases\": {");
+        String separator = "\n";
+        for (Phase phase : Phase.values()) {
+            json.append(separator).append("    \"").append(phase.name().toLowerCase()).append("\": {")
+                    .append("\"ms\": ").append(phaseNanos.get(phase).sum() / 1_000_000).append(", ")
+                    .append("\"count\": ").append(phaseCount.get(phase).sum()).append("}");
+            separator = ",\n";
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"regionLatencyHistogramMs\": {");
+        separator = "\n";
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            long count = regionHistogram.get(i);
+            if (count > 0) {
+                json.append(separator).append("    \"<").append(1L << i).append("\": ").append(count);
+                separator = ",\n";
+            }
+        }
+        json.append("\n  },\n");
+
+        List<RegionTime> slowest;
+        synchronized (slowestRegions) {
+            slowest = new ArrayList<>(slowestRegions);
+        }
+        slowest.sort(Comparator.comparingLong(RegionTime::getNanos).reversed());
+        json.append("  \"slowestRegions\": [");
+        separator = "\n";
+        for (RegionTime region : slowest) {
+            json.append(separator).append("    {\"file\": ").append(Utils.toJsonString(region.getName())).append(", ")
+                    .append("\"ms\": ").append(region.getNanos() / 1_000_000).append(", ")
+                    .append("\"bytes\": ").append(region.getLength()).append("}");
+            separator = ",\n";
+        }
+        json.append("\n  ],\n");
+
+        json.append("  \"gc\": {\"collections\": ").append(gcCount() - startGcCount).append(", ")
+                .append("\"ms\": ").append(gcMillis() - startGcMillis).append("},\n");
+        json.append("  \"allocatedBytes\": ").append(allocatedBytes.sum()).append("\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class Timer {
+        private final Phase phase;
+        private final long start;
+        private final long nestedAtStart;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class RegionTime {
+        private final String name;
+        private final long nanos;
+        private final long length;
+    }
+}
@@ -0,0 +1,103 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Набор путей в NBT, которые нужно считать, все остальное {@link NBTStreamReader} пропускает, не создавая объектов.
+ * <p>
+ * Путь состоит из имен тегов через точку, элементы списка обозначаются {@code [*]}, например
+ * {@code Level.Sections[*].Blocks}. Для путей, добавленных через {@link #length(String)}, вместо массива
+ * сохраняется только его тип и длина ({@link ArrayLength}), сами байты не копируются.
+ */
+public class NBTProjection {
+
+    private final Map<String, NBTProjection> children = new HashMap<>();
+    private NBTProjection elements;
+    private Mode mode;
+
+    /**
+     * Считать значение тега целиком
+     */
+    public NBTProjection value(String path) {
+        this.node(path).mode = Mode.VALUE;
+        return this;
+    }
+
+    /**
+     * Считать только длину массива (TAG_Byte_Array, TAG_Int_Array, TAG_Long_Array).
+     * Если тег окажется не массивом, он будет считан целиком, как в {@link #value(String)}.
+     * Если этот же путь уже добавлен через {@link #value(String)}, он так и будет считан целиком
+     */
+    public NBTProjection length(String path) {
+        NBTProjection node = this.node(path);
+        if (node.mode != Mode.VALUE) {
+            node.mode = Mode.LENGTH;
+        }
+        return this;
+    }
+
+    private NBTProjection node(String path) {
+        NBTProjection node = this;
+        for (String part : path.split("\\.")) {
+            boolean list = part.endsWith("[*]");
+            String name = list ? part.substring(0, part.length() - 3) : part;
+            node = node.children.computeIfAbsent(name, k -> new NBTProjection());
+            if (list) {
+                if (node.elements == null) {
+                    node.elements = new NBTProjection();
+                }
+                node = node.elements;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @return проекция дочернего тега, либо null, если тег не нужен и его нужно пропустить
+     */
+    NBTProjection child(String name) {
+        return children.get(name);
+    }
+
+    /**
+     * @return проекция элементов списка, либо null, если из элементов ничего не нужно
+     */
+    NBTProjection elements() {
+        return elements;
+    }
+
+    boolean isValue() {
+        return mode == Mode.VALUE;
+    }
+
+    boolean isLength() {
+        return mode == Mode.LENGTH;
+    }
+
+    private enum Mode {
+        VALUE,
+        LENGTH
+    }
+
+    /**
+     * Массив, считанный через {@link #length(String)}. Тип нужен, чтобы отличить, например,
+     * TAG_Int_Array на месте TAG_Byte_Array от массива неправильной длины
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class ArrayLength {
+        public static final byte BYTE_ARRAY = 7;
+        public static final byte INT_ARRAY = 11;
+        public static final byte LONG_ARRAY = 12;
+
+        /**
+         * Тип тега: {@link #BYTE_ARRAY}, {@link #INT_ARRAY} или {@link #LONG_ARRAY}
+         */
+        private final byte type;
+        private final int length;
+    }
+}
@@ -0,0 +1,309 @@
+package ua.lokha.megachunkfixer2000;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author Zeerix
+ */
+public class NBTStreamReader {
+    /**
+     * How many bytes of an int/long array are read at once
+     */
+    static final int BULK_BYTES = 8192;
+
+    /**
+     * Reads a NBT tag compound from a GZIP compressed InputStream
+     * @return Map<String, Object> describing the NBT tag compound
+     * @throws IOException
+     */
+    public static Map<String, Object> read(InputStream in) throws IOException {
+        return read(in, true);
+    }
+
+    /**
+     * Reads a NBT tag compound from an InputStream, either GZIP compressed or uncompressed
+     * @param compressed 'true' if the data in InputStream is compressed
+     * @return Map<String, Object> describing the NBT tag compound
+     * @throws IOException
+     */
+    public static Map<String, Object> read(InputStream in, boolean compressed) throws IOException {
+        DataInputStream data = compressed
+            ? new DataInputStream(new GZIPInputStream(in))
+            : new DataInputStream(Pools.buffered(in));
+        try {
+            return read( (DataInput)data );
+        } finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Reads only the tags selected by the projection from an uncompressed InputStream,
+     * everything else is skipped without creating objects
+     * @return Map<String, Object> with the selected tags only
+     * @throws IOException
+     */
+    public static Map<String, Object> read(InputStream in, NBTProjection projection) throws IOException {
+        DataInputStream data = new DataInputStream(Pools.buffered(in));
+        try {
+            if (data.readByte() != 10)    // assume TypeID of NBT::TAG_Compound
+                throw new IOException("Root tag must be a named compound tag");
+            skipString(data);
+            return readCompound(data, projection);
+        } finally {
+            data.close();
+        }
+    }
+
+    private static Map<String, Object> read(DataInput in) throws IOException {
+        if (in.readByte() != 10)    // assume TypeID of NBT::TAG_Compound
+            throw new IOException("Root tag must be a named compound tag");
+
+        String name = readString(in);
+
+        Map<String, Object> map = readCompound(in);
+        if (!name.isEmpty()) {
+            map.put("$this.name", name);
+        }
+
+        return map;
+    }
+
+    private static Object readTag(DataInput in, byte type) throws IOException {
+        switch (type) {
+        case 1: return in.readByte();
+        case 2: return in.readShort();
+        case 3: return in.readInt();
+        case 4: return in.readLong();
+        case 5: return in.readFloat();
+        case 6: return in.readDouble();
+
+        case 7: return readByteArray(in);
+        case 8: return readString(in);
+        case 9: return readList(in);
+        case 10: return readCompound(in);
+        case 11: return readIntArray(in);
+        case 12: return readLongArray(in);
+        default: throw new IOException("Invalid NBT tag type (1-12): " + type);
+        }
+    }
+
+    /**
+     * Elements are read in bulk into a pooled buffer and decoded through a big-endian {@link IntBuffer} view,
+     * not with a {@link DataInput#readInt()} call per element
+     */
+    private static int[] readIntArray(DataInput in) throws IOException {
+        int[] data = new int[ readArrayLength(in) ];
+        byte[] buffer = Pools.acquireBuffer(BULK_BYTES);
+        try {
+            IntBuffer view = ByteBuffer.wrap(buffer).asIntBuffer();
+            int perRead = buffer.length / 4;
+            for (int i = 0; i < data.length; i += perRead) {
+                int count = Math.min(perRead, data.length - i);
+                in.readFully(buffer, 0, count * 4);
+                view.clear();
+                view.get(data, i, count);
+            }
+        } finally {
+            Pools.releaseBuffer(buffer);
+        }
+        return data;
+    }
+
+    private static long[] readLongArray(DataInput in) throws IOException {
+        long[] data = new long[ readArrayLength(in) ];
+        byte[] buffer = Pools.acquireBuffer(BULK_BYTES);
+        try {
+            LongBuffer view = ByteBuffer.wrap(buffer).asLongBuffer();
+            int perRead = buffer.length / 8;
+            for (int i = 0; i < data.length; i += perRead) {
+                int count = Math.min(perRead, data.length - i);
+                in.readFully(buffer, 0, count * 8);
+                view.clear();
+                view.get(data, i, count);
+            }
+        } finally {
+            Pools.releaseBuffer(buffer);
+        }
+        return data;
+    }
+
+    private static int readArrayLength(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative array length: " + length);
+        }
+        return length;
+    }
+
+    private static byte[] readByteArray(DataInput in) throws IOException {
+        byte[] data = new byte[ readArrayLength(in) ];
+        in.readFully(data);
+        return data;
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readUTF();
+    }
+
+    private static List<Object> readList(DataInput in) throws IOException {
+        byte type = in.readByte();
+        int length = in.readInt();
+        List<Object> list = new ArrayList<Object>(length);
+        for (int i = 0; i < length; ++i) {
+            Object tag = readTag(in, type);
+            list.add(tag);
+        }
+        return list;
+    }
+
+    private static Map<String, Object> readCompound(DataInput in) throws IOException {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (byte type; (type = in.readByte()) != 0; ) {
+            String name = readString(in);
+            Object tag = readTag(in, type);
+            map.put(name, tag);
+        }
+        return map;
+    }
+
+    private static Object readTag(DataInput in, byte type, NBTProjection projection) throws IOException {
+        if (projection.isValue()) {
+            return readTag(in, type);
+        }
+        if (projection.isLength()) {
+            switch (type) {
+            case 7: return new NBTProjection.ArrayLength(type, skipArray(in, 1));
+            case 11: return new NBTProjection.ArrayLength(type, skipArray(in, 4));
+            case 12: return new NBTProjection.ArrayLength(type, skipArray(in, 8));
+            default: return readTag(in, type);
+            }
+        }
+        switch (type) {
+        case 9: return readList(in, projection.elements());
+        case 10: return readCompound(in, projection);
+        default:
+            skipTag(in, type);
+            return null;
+        }
+    }
+
+    private static List<Object> readList(DataInput in, NBTProjection elements) throws IOException {
+        byte type = in.readByte();
+        int length = in.readInt();
+        if (elements == null) {
+            skipList(in, type, length);
+            return new ArrayList<Object>(0);
+        }
+        List<Object> list = new ArrayList<Object>(length);
+        for (int i = 0; i < length; ++i) {
+            list.add(readTag(in, type, elements));
+        }
+        return list;
+    }
+
+    private static Map<String, Object> readCompound(DataInput in, NBTProjection projection) throws IOException {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (byte type; (type = in.readByte()) != 0; ) {
+            String name = readString(in);
+            NBTProjection child = projection.child(name);
+            if (child == null) {
+                skipTag(in, type);
+                continue;
+            }
+            Object tag = readTag(in, type, child);
+            if (tag != null) {
+                map.put(name, tag);
+            }
+        }
+        return map;
+    }
+
+    private static void skipTag(DataInput in, byte type) throws IOException {
+        switch (type) {
+        case 1:
+        case 2:
+        case 3:
+        case 4:
+        case 5:
+        case 6: skip(in, primitiveSize(type)); break;
+
+        case 7: skipArray(in, 1); break;
+        case 8: skipString(in); break;
+        case 9: skipList(in, in.readByte(), in.readInt()); break;
+        case 10:
+            for (byte childType; (childType = in.readByte()) != 0; ) {
+                skipString(in);
+                skipTag(in, childType);
+            }
+            break;
+        case 11: skipArray(in, 4); break;
+        case 12: skipArray(in, 8); break;
+        default: throw new IOException("Invalid NBT tag type (1-12): " + type);
+        }
+    }
+
+    private static void skipList(DataInput in, byte type, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Negative list length: " + length);
+        }
+        int size = primitiveSize(type);
+        if (size > 0) {
+            skip(in, (long) length * size);
+            return;
+        }
+        for (int i = 0; i < length; ++i) {
+            skipTag(in, type);
+        }
+    }
+
+    /**
+     * @return size in bytes of a fixed-size tag or 0 for variable-size tags
+     */
+    private static int primitiveSize(byte type) {
+        switch (type) {
+        case 1: return 1;
+        case 2: return 2;
+        case 3: return 4;
+        case 4: return 8;
+        case 5: return 4;
+        case 6: return 8;
+        default: return 0;
+        }
+    }
+
+    /**
+     * @return length of the skipped array
+     */
+    private static int skipArray(DataInput in, int elementSize) throws IOException {
+        int length = readArrayLength(in);
+        skip(in, (long) length * elementSize);
+        return length;
+    }
+
+    private static void skipString(DataInput in) throws IOException {
+        skip(in, in.readUnsignedShort());
+    }
+
+    private static void skip(DataInput in, long bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = in.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            bytes -= skipped;
+        }
+    }
+}
@@ -5,6 +5,9 @@ import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPOutputStream;
@@ -61,6 +64,7 @@ public class NBTStreamWriter {
         if (tag instanceof List<?>) return 9;
         if (tag instanceof Map<?, ?>) return 10;
         if (tag instanceof int[]) return 11;
+        if (tag instanceof long[]) return 12;
 
         throw new RuntimeException("Cannot serialize unknown type " + tag.getClass());
     }
@@ -80,7 +84,8 @@ public class NBTStreamWriter {
         case 9: writeList(out, (List<Object>)tag); break;
         case 10: writeCompound(out, (Map<String, Object>)tag); break;
         case 11: writeIntArray(out, (int[]) tag); break;
-        default: throw new IOException("Invalid NBT tag type (1-11): " + type);
+        case 12: writeLongArray(out, (long[]) tag); break;
+        default: throw new IOException("Invalid NBT tag type (1-12): " + type);
         }
     }
 
@@ -89,10 +94,41 @@ public class NBTStreamWriter {
         out.write(array);
     }
 
+    /**
+     * Elements are encoded in bulk through a big-endian {@link IntBuffer} view of a pooled buffer
+     */
     private static void writeIntArray(DataOutput out, int[] array) throws IOException {
         out.writeInt(array.length);
-        for (int i = 0; i < array.length; i++)
-            out.writeInt(array[i]);
+        byte[] buffer = Pools.acquireBuffer(NBTStreamReader.BULK_BYTES);
+        try {
+            IntBuffer view = ByteBuffer.wrap(buffer).asIntBuffer();
+            int perWrite = buffer.length / 4;
+            for (int i = 0; i < array.length; i += perWrite) {
+                int count = Math.min(perWrite, array.length - i);
+                view.clear();
+                view.put(array, i, count);
+                out.write(buffer, 0, count * 4);
+            }
+        } finally {
+            Pools.releaseBuffer(buffer);
+        }
+    }
+
+    private static void writeLongArray(DataOutput out, long[] array) throws IOException {
+        out.writeInt(array.length);
+        byte[] buffer = Pools.acquireBuffer(NBTStreamReader.BULK_BYTES);
+        try {
+            LongBuffer view = ByteBuffer.wrap(buffer).asLongBuffer();
+            int perWrite = buffer.length / 8;
+            for (int i = 0; i < array.length; i += perWrite) {
+                int count = Math.min(perWrite, array.length - i);
+                view.clear();
+                view.put(array, i, count);
+                out.write(buffer, 0, count * 8);
+            }
+        } finally {
+            Pools.releaseBuffer(buffer);
+        }
     }
 
     private static void writeString(DataOutput out, String str) throws IOException {
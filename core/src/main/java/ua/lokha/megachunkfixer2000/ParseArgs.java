@@ -0,0 +1,82 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Data
+@AllArgsConstructor
+public class ParseArgs {
+
+    private static final FilenameFilter filter = (dir, name) -> name.endsWith(".mca");
+
+    private File dir;
+    private List<File> regions;
+    private List<String> flags;
+
+    @SuppressWarnings("ConstantConditions")
+    public static ParseArgs parse(String[] args) {
+        List<String> flags = Stream.of(args).filter(s -> s.startsWith("--")).collect(Collectors.toList());
+
+        File dir;
+        if (args.length > 0) {
+            dir = new File(String.join(" ", Stream.of(args).filter(s -> !s.startsWith("--")).collect(Collectors.joining(" "))));
+            if (!dir.exists()) {
+                throw new RuntimeException("Папка " + dir + " не найдена.");
+            } else if (!dir.isDirectory()) {
+                throw new RuntimeException("Это не папка - " + dir + ".");
+            }
+        } else {
+            dir = new File(".");
+        }
+
+        // с --recursive регионы ищутся во время обработки, см. RegionDiscovery
+        List<File> files = new ArrayList<>();
+        if (!flags.contains("--recursive")) {
+            files.addAll(Arrays.asList(dir.listFiles(filter)));
+            File regionDir = new File(dir, "region");
+            if (regionDir.exists() && regionDir.isDirectory()) {
+                files.addAll(Arrays.asList(regionDir.listFiles(filter)));
+            }
+        }
+
+        return new ParseArgs(dir, files, flags);
+    }
+
+    public boolean hasFlag(String flag) {
+        return flags.stream().anyMatch(s -> s.equals(flag) || s.startsWith(flag + "="));
+    }
+
+    /**
+     * Получить значение флага вида {@code --flag=value}
+     * @param flag название флага
+     * @return значение после знака {@code =}, либо null, если флаг не указан или указан без значения
+     */
+    public String getFlagValue(String flag) {
+        String prefix = flag + "=";
+        return flags.stream()
+                .filter(s -> s.startsWith(prefix))
+                .map(s -> s.substring(prefix.length()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    public int getIntFlag(String flag, int def) {
+        String value = this.getFlagValue(flag);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Флаг " + flag + " должен быть числом, а указано " + value + ".");
+        }
+    }
+}
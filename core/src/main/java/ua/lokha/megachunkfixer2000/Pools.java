@@ -0,0 +1,172 @@
+package ua.lokha.megachunkfixer2000;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Переиспользуемые по потокам {@link Inflater}, {@link Deflater} и буферы, чтобы проверка чанков
+ * почти ничего не выделяла на каждый чанк, а нативная память zlib не копилась до финализации.
+ * <p>
+ * Взятое через {@code acquire*} нужно вернуть через {@code release*} (потоки из этого класса делают это сами при закрытии).
+ * Вернуть можно и из другого потока, тогда объект останется в пуле того потока.
+ * Если не вернуть, ничего страшного, объект просто соберет GC.
+ */
+public class Pools {
+
+    /**
+     * Сколько буферов одновременно держит каждый поток: данные чанка, буфер чтения NBT и запас
+     */
+    private static final int MAX_BUFFERS = 4;
+    private static final int MIN_BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<ArrayDeque<byte[]>> buffers = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<>();
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<>();
+
+    /**
+     * @return буфер длиной не меньше {@code minSize}, содержимое не очищено
+     */
+    public static byte[] acquireBuffer(int minSize) {
+        ArrayDeque<byte[]> pool = buffers.get();
+        for (Iterator<byte[]> iterator = pool.iterator(); iterator.hasNext(); ) {
+            byte[] buffer = iterator.next();
+            if (buffer.length >= minSize) {
+                iterator.remove();
+                return buffer;
+            }
+        }
+        if (!pool.isEmpty()) {
+            pool.pollLast(); // в пуле только маленькие буферы, освобождаем место для нового большого
+        }
+        int size = MIN_BUFFER_SIZE;
+        while (size < minSize && size > 0) {
+            size <<= 1;
+        }
+        return new byte[size > 0 ? size : minSize];
+    }
+
+    public static void releaseBuffer(byte[] buffer) {
+        ArrayDeque<byte[]> pool = buffers.get();
+        if (buffer != null && pool.size() < MAX_BUFFERS) {
+            pool.push(buffer);
+        }
+    }
+
+    public static Inflater acquireInflater() {
+        Inflater inflater = inflaters.get();
+        if (inflater == null) {
+            return new Inflater();
+        }
+        inflaters.set(null);
+        return inflater;
+    }
+
+    public static void releaseInflater(Inflater inflater) {
+        if (inflaters.get() == null) {
+            inflater.reset();
+            inflaters.set(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+
+    public static Deflater acquireDeflater() {
+        Deflater deflater = deflaters.get();
+        if (deflater == null) {
+            return new Deflater();
+        }
+        deflaters.set(null);
+        return deflater;
+    }
+
+    public static void releaseDeflater(Deflater deflater) {
+        if (deflaters.get() == null) {
+            deflater.setLevel(Deflater.DEFAULT_COMPRESSION);
+            deflater.reset();
+            deflaters.set(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Распаковка zlib (deflate) через {@link Inflater} из пула, при закрытии он возвращается в пул
+     */
+    public static InputStream inflate(InputStream in) {
+        return new InflaterInputStream(in, acquireInflater()) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    releaseInflater(inf);
+                }
+            }
+        };
+    }
+
+    /**
+     * Сжатие zlib (deflate) через {@link Deflater} из пула, при закрытии он возвращается в пул
+     */
+    public static OutputStream deflate(OutputStream out) {
+        return deflate(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * То же, что {@link #deflate(OutputStream)}, но с заданным уровнем сжатия от 0 до 9
+     */
+    public static OutputStream deflate(OutputStream out, int level) {
+        Deflater deflater = acquireDeflater();
+        deflater.setLevel(level);
+        return new DeflaterOutputStream(out, deflater) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    releaseDeflater(def);
+                }
+            }
+        };
+    }
+
+    /**
+     * {@link BufferedInputStream} с буфером из пула, при закрытии буфер возвращается в пул
+     */
+    public static InputStream buffered(InputStream in) {
+        return new BufferedInputStream(in, 1) {
+            {
+                buf = acquireBuffer(MIN_BUFFER_SIZE);
+            }
+
+            @Override
+            public void close() throws IOException {
+                byte[] buffer = buf;
+                super.close();
+                if (buffer != null && buf == null) {
+                    releaseBuffer(buffer);
+                }
+            }
+        };
+    }
+}
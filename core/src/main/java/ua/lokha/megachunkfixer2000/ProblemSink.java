@@ -0,0 +1,17 @@
+package ua.lokha.megachunkfixer2000;
+
+/**
+ * Получатель найденных проблем в чанках
+ */
+public interface ProblemSink {
+
+    /**
+     * Пишет каждую проблему сразу в {@link System#out}, так утилита работала всегда, удобно при использовании как библиотеки
+     */
+    ProblemSink STDOUT = problem -> System.out.println(problem.toMessage());
+
+    /**
+     * Вызывается из потоков, которые проверяют чанки, поэтому должен быстро возвращать управление
+     */
+    void report(ChunkProblem problem);
+}
@@ -0,0 +1,171 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Пересжатие чанков региона с заданным уровнем deflate.
+ * <p>
+ * Чанки распаковываются и сжимаются заново параллельно в {@link #executor}, старые GZIP чанки переводятся в deflate.
+ * Новые данные заменяют старые, только если чанк стал меньше, а сам регион переписывается в новый файл уже без дыр
+ * через {@link RegionFile#clearUnusedSpaceByCopy(ByteBuffer[])}.
+ * <p>
+ * Регион пересжимается уже после проверки, поэтому каждый чанк читается и распаковывается второй раз. Распакованные
+ * данные из проверки не сохраняются: тогда весь регион ждал бы конца проверки в памяти, вне {@link MemoryBudget}.
+ * Один экземпляр можно использовать из нескольких потоков одновременно для разных регионов.
+ */
+@Getter
+@Setter
+public class Recompressor {
+
+    private int level = Deflater.BEST_COMPRESSION;
+
+    /**
+     * Порядок чанков в переписанном регионе
+     */
+    private RegionFile.ChunkOrder order = RegionFile.ChunkOrder.SECTOR;
+
+    /**
+     * Пул для сжатия чанков, если null, чанки сжимаются по очереди в потоке, который обрабатывает регион
+     */
+    private ExecutorService executor;
+
+    /**
+     * Если не null, перед пересжатием в нем резервируется память под все сжатые данные региона и новые данные
+     */
+    private MemoryBudget memoryBudget;
+
+    private final AtomicInteger recompressed = new AtomicInteger();
+    private final AtomicInteger convertedGzip = new AtomicInteger();
+    private final AtomicLong bytesBefore = new AtomicLong();
+    private final AtomicLong bytesAfter = new AtomicLong();
+
+    /**
+     * Пересжать чанки региона и переписать его в новый файл без неиспользуемого пространства.
+     * Чанки, которые не удалось распаковать, копируются как есть
+     * @return чанки, которые не попали в новый файл, см. {@link RegionFile#clearUnusedSpaceByCopy()}
+     */
+    public List<RegionFile.StructureProblem> recompress(RegionFile regionFile) throws Exception {
+        if (memoryBudget == null) {
+            return this.recompress0(regionFile);
+        }
+        long reserved = 2 * regionFile.getFile().length();
+        memoryBudget.acquire(reserved);
+        try {
+            return this.recompress0(regionFile);
+        } finally {
+            memoryBudget.release(reserved);
+        }
+    }
+
+    private List<RegionFile.StructureProblem> recompress0(RegionFile regionFile) throws Exception {
+        List<Callable<ByteBuffer>> tasks = new ArrayList<>();
+        List<RegionFile.ChunkPayload> payloads = new ArrayList<>();
+        for (int x = 0; x < 32; x++) {
+            for (int z = 0; z < 32; z++) {
+                if (regionFile.hasChunk(x, z)) {
+                    RegionFile.ChunkPayload payload = regionFile.readChunkPayload(x, z);
+                    if (payload != null) {
+                        payloads.add(payload);
+                        tasks.add(() -> {
+                            try {
+                                return this.recompress(payload);
+                            } finally {
+                                Metrics.addThreadAllocation();
+                            }
+                        });
+                    }
+                }
+            }
+        }
+
+        ByteBuffer[] replacements = new ByteBuffer[RegionFile.SECTOR_INTS];
+        try {
+            if (executor != null) {
+                List<Future<ByteBuffer>> results = executor.invokeAll(tasks);
+                for (int i = 0; i < results.size(); i++) {
+                    RegionFile.ChunkPayload payload = payloads.get(i);
+                    replacements[payload.getX() + payload.getZ() * 32] = results.get(i).get();
+                }
+            } else {
+                for (int i = 0; i < tasks.size(); i++) {
+                    RegionFile.ChunkPayload payload = payloads.get(i);
+                    replacements[payload.getX() + payload.getZ() * 32] = tasks.get(i).call();
+                }
+            }
+        } finally {
+            payloads.forEach(RegionFile.ChunkPayload::release);
+        }
+
+        return regionFile.clearUnusedSpaceByCopy(replacements, order);
+    }
+
+    /**
+     * @return новая запись чанка (длина, версия и сжатые данные), либо null, если чанк лучше оставить как есть
+     */
+    private ByteBuffer recompress(RegionFile.ChunkPayload payload) {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.DEFLATE);
+        try {
+            return this.recompress0(payload);
+        } finally {
+            Metrics.stop(timer);
+        }
+    }
+
+    private ByteBuffer recompress0(RegionFile.ChunkPayload payload) {
+        int oldLength = payload.getData().remaining();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(oldLength + RegionFile.CHUNK_HEADER_SIZE);
+        try {
+            buffer.write(new byte[RegionFile.CHUNK_HEADER_SIZE]);
+            byte[] copy = Pools.acquireBuffer(8192);
+            try (DataInputStream in = payload.getInputStream();
+                 OutputStream out = Pools.deflate(buffer, level)) {
+                int read;
+                while ((read = in.read(copy)) != -1) {
+                    out.write(copy, 0, read);
+                }
+            } finally {
+                Pools.releaseBuffer(copy);
+            }
+        } catch (Exception e) {
+            return null; // битый чанк, пусть с ним разбирается проверка
+        }
+
+        int newLength = buffer.size() - RegionFile.CHUNK_HEADER_SIZE;
+        boolean gzip = payload.getVersion() == RegionFile.VERSION_GZIP;
+        // GZIP переводим в deflate, даже если сжалось чуть хуже, лишь бы не занять больше секторов
+        if (newLength >= oldLength && !(gzip && sectors(newLength) <= sectors(oldLength))) {
+            bytesBefore.addAndGet(oldLength);
+            bytesAfter.addAndGet(oldLength);
+            return null;
+        }
+
+        ByteBuffer record = ByteBuffer.wrap(buffer.toByteArray());
+        record.putInt(0, newLength + 1);
+        record.put(4, (byte) RegionFile.VERSION_DEFLATE);
+        recompressed.incrementAndGet();
+        if (gzip) {
+            convertedGzip.incrementAndGet();
+        }
+        bytesBefore.addAndGet(oldLength);
+        bytesAfter.addAndGet(newLength);
+        return record;
+    }
+
+    private static int sectors(int length) {
+        return (length + RegionFile.CHUNK_HEADER_SIZE + RegionFile.SECTOR_BYTES - 1) / RegionFile.SECTOR_BYTES;
+    }
+}
@@ -0,0 +1,51 @@
+package ua.lokha.megachunkfixer2000;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.BiConsumer;
+
+/**
+ * Поиск регионов во всех вложенных папках мира для {@code --recursive}: {@code region}, {@code DIM-1/region},
+ * {@code DIM1/region}, {@code dimensions/.../region} и папки {@code entities} и {@code poi}.
+ * <p>
+ * Файлы отдаются по одному сразу, как только найдены, поэтому обработка начинается, не дожидаясь конца обхода
+ * папок со ста тысячами файлов. Размер берется из атрибутов, полученных при обходе, без отдельного запроса к диску.
+ * Скрытые папки, например индекс {@code .mega-chunk-fixer}, и ссылки на папки пропускаются.
+ */
+public class RegionDiscovery {
+
+    /**
+     * @param consumer получает файл региона и его размер в байтах, вызывается в текущем потоке
+     */
+    public static void walk(File dir, BiConsumer<File, Long> consumer) throws IOException {
+        Path root = dir.toPath();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) {
+                if (!path.equals(root) && path.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && path.getFileName().toString().endsWith(".mca")) {
+                    consumer.accept(path.toFile(), attrs.size());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) {
+                System.err.println("Не удалось прочитать " + path + ": " + e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,1406 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Файл региона Anvil.
+ * <p>
+ * Чтение чанков ({@link #readChunkPayload}, {@link #getChunkDataInputStream}, {@link #checkStructure()}) идет по позиции
+ * через {@link FileChannel#read(ByteBuffer, long)}, без общего указателя файла, и под блокировкой на чтение,
+ * поэтому любое количество потоков может читать чанки одного региона одновременно.
+ * Запись, удаление чанков, запись заголовка и очистка пространства берут блокировку на запись и ждут, пока закончатся чтения.
+ * Блокировка на чтение держится только пока данные чанка достаются из файла, а распаковываются они уже без нее.
+ * Поэтому для отображенного в память региона данные чанка держат ссылку на отображение, и запись, которая
+ * переотображает файл, или закрытие региона не освобождают его, пока данные не отпущены через {@link ChunkPayload#release()}.
+ * Если поток прервут во время чтения, {@link FileChannel} закроется, и регион нужно будет открыть заново.
+ */
+public class RegionFile implements Closeable {
+
+    public static final int CHUNK_HEADER_SIZE = 5;
+    public static final int VERSION_GZIP = 1;
+    public static final int VERSION_DEFLATE = 2;
+    public static final int SECTOR_BYTES = 4096;
+    public static final int SECTOR_INTS = SECTOR_BYTES / 4;
+    public static final byte emptySector[] = new byte[4096];
+
+    /**
+     * Максимальный размер одного чтения в {@link #scanBySector(boolean[])}, в него помещается любой чанк (до 255 секторов)
+     */
+    public static final int SCAN_READ_BYTES = 256 * SECTOR_BYTES;
+
+    /**
+     * Сколько неиспользуемых секторов между чанками можно прочитать зря, чтобы не делать отдельное чтение
+     */
+    public static final int SCAN_MAX_GAP_SECTORS = 4;
+
+    public final File fileName;
+    public int offsets[];
+    public int chunkTimestamps[];
+    public RandomAccessFile file;
+    public SectorAllocator sectorAllocator;
+    public int sizeDelta;
+    public long lastModified = 0;
+    public final boolean readOnly;
+
+    /**
+     * Блокировка на запись реентерабельная: очистка пространства внутри записывает заголовок и заново читает индексы
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Таблицы смещений и времени изменения чанков меняются только в памяти
+     * и записываются на диск целиком одной записью в {@link #flush()} или {@link #close()}
+     */
+    public boolean headerDirty;
+
+    /**
+     * Отображение файла в память, если регион открыт с {@code mapped = true}.
+     * Заголовок и данные чанков читаются прямо из него, без seek и копирования в массивы.
+     * Переотображается после каждого изменения длины файла.
+     */
+    public MappedByteBuffer mappedFile;
+
+    /**
+     * Счетчик ссылок на {@link #mappedFile}: старое отображение освобождается, только когда его отпустил и регион,
+     * и все данные чанков, которые на него ссылаются, иначе поток, который их распаковывает, упал бы вместе с JVM
+     */
+    private Mapping mapping;
+    public final boolean mapped;
+
+    public RegionFile(File path) {
+        this(path, false, false);
+    }
+
+    /**
+     * @param readOnly открыть файл только для чтения, любые попытки записи будут бросать исключение
+     * @param mapped   читать заголовок и чанки через отображение файла в память ({@link FileChannel#map}).
+     *                 Данные чанков, полученные через {@link #readChunkPayload(int, int)}, ссылаются на отображение
+     *                 и остаются доступны до {@link ChunkPayload#release()}, даже если регион закрыт или переотображен.
+     *                 Если за это время перезаписать сектора чанка, в данных будет то, что записано в файл
+     */
+    @SneakyThrows
+    public RegionFile(File path, boolean readOnly, boolean mapped) {
+        fileName = path;
+        this.readOnly = readOnly;
+        this.mapped = mapped;
+        debugln("REGION LOAD " + fileName);
+
+        if (path.exists()) {
+            lastModified = path.lastModified();
+        }
+
+        file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+
+        this.recreateIndexes();
+    }
+
+    @SneakyThrows
+    private void recreateIndexes() {
+        file.seek(0);
+
+        sizeDelta = 0;
+        offsets = new int[SECTOR_INTS];
+        chunkTimestamps = new int[SECTOR_INTS];
+
+        if (readOnly) {
+            this.loadIndexesReadOnly();
+            return;
+        }
+
+        if (file.length() < SECTOR_BYTES) {
+            /* we need to write the chunk offset table */
+            file.write(emptySector);
+            // write another sector for the timestamp info
+            file.write(emptySector);
+
+            sizeDelta += SECTOR_BYTES * 2;
+        }
+
+        if ((file.length() & 0xfff) != 0 || file.length() < SECTOR_BYTES * 2) {
+            /* the file size is not a multiple of 4KB, grow it at the end (never over the header) */
+            file.setLength(Math.max(SECTOR_BYTES * 2, (file.length() + 0xfff) & ~0xfffL));
+        }
+
+        /* set up the available sector map */
+        int nSectors = (int) file.length() / SECTOR_BYTES;
+        sectorAllocator = new SectorAllocator(nSectors);
+        sectorAllocator.markUsed(0, 2); // chunk offset table and the last modified info
+
+        this.remap();
+        this.loadHeader();
+    }
+
+    /* same as recreateIndexes, but never touches the file: a short file is treated as an empty region */
+    @SneakyThrows
+    private void loadIndexesReadOnly() {
+        int nSectors = (int) (file.length() / SECTOR_BYTES);
+        sectorAllocator = new SectorAllocator(Math.max(nSectors, 2));
+        sectorAllocator.markUsed(0, 2);
+
+        this.remap();
+        if (nSectors >= 2) {
+            this.loadHeader();
+        }
+    }
+
+    /* reads both header tables with one bulk read */
+    @SneakyThrows
+    private void loadHeader() {
+        IntBuffer header;
+        if (mappedFile != null) {
+            header = ((ByteBuffer) mappedFile.duplicate().position(0)).asIntBuffer();
+        } else {
+            byte[] bytes = new byte[SECTOR_BYTES * 2];
+            file.seek(0);
+            file.readFully(bytes);
+            header = ByteBuffer.wrap(bytes).asIntBuffer();
+        }
+        header.get(offsets);
+        header.get(chunkTimestamps);
+        headerDirty = false;
+
+        for (int i = 0; i < SECTOR_INTS; ++i) {
+            int offset = offsets[i];
+            if (offset != 0 && (offset >> 8) + (offset & 0xFF) <= sectorAllocator.size()) {
+                sectorAllocator.markUsed(offset >> 8, offset & 0xFF);
+            }
+        }
+    }
+
+    /* maps the whole file again after its length has changed */
+    @SneakyThrows
+    private void remap() {
+        if (!mapped) {
+            return;
+        }
+        this.unmap();
+        mappedFile = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        mapping = new Mapping(mappedFile);
+    }
+
+    /* lets go of the current mapping, it is unmapped right away unless payloads sliced from it are still in use */
+    private void unmap() {
+        if (mapping != null) {
+            mapping.release();
+            mapping = null;
+        }
+        mappedFile = null;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("Регион " + this.getFileName() + " открыт только для чтения");
+        }
+    }
+
+    /**
+     * Сдвинуть чанки к началу файла на место неиспользуемых секторов и обрезать файл.
+     * Чанки двигаются внутри того же файла, поэтому для отображенного в память региона все данные чанков,
+     * полученные из него, должны быть уже освобождены через {@link ChunkPayload#release()}
+     */
+    public void clearUnusedSpace() {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.COMPACT);
+        lock.writeLock().lock();
+        try {
+            if (mapping != null && mapping.isShared()) {
+                throw new IllegalStateException("Регион " + this.getFileName() + " нельзя очищать, пока не освобождены " +
+                        "данные чанков, прочитанные из его отображения в память");
+            }
+            this.clearUnusedSpace0();
+        } finally {
+            lock.writeLock().unlock();
+            Metrics.stop(timer);
+        }
+    }
+
+    @SneakyThrows
+    private void clearUnusedSpace0() {
+        this.checkWritable();
+        List<ChunkOffset> offsets = this.getChunksBySector();
+
+        int chunkMoveTotal = 0;
+
+        int nextPos = 2 * SECTOR_BYTES;
+        for (ChunkOffset chunkOffset : offsets) {
+            int offset = chunkOffset.getOffset();
+
+            int pos = (offset >> 8) * SECTOR_BYTES;
+
+            file.seek(pos);
+            int length = file.readInt();
+            int sectorsNeeded = (length - 1 + CHUNK_HEADER_SIZE) / SECTOR_BYTES + 1;
+
+            if (pos > nextPos) {
+                chunkMoveTotal++;
+                byte[] bytes = new byte[length];
+                file.read(bytes);
+
+                file.seek(nextPos);
+                file.writeInt(length);
+                file.write(bytes, 0, bytes.length);
+                Metrics.addBytesWritten(4 + length);
+
+                int nextOffset = (((nextPos / SECTOR_BYTES) << 8) | sectorsNeeded);
+                this.setOffset(chunkOffset.getX(), chunkOffset.getZ(), nextOffset);
+            }
+
+            nextPos += sectorsNeeded * SECTOR_BYTES;
+        }
+
+        if (file.length() > nextPos) {
+            // на Windows нельзя обрезать файл, пока он отображен в память
+            this.unmap();
+            System.out.println("Сокращаем длину региона " + this.getFileName() + " " +
+                    "с " + Utils.toLogLength(file.length()) + " " +
+                    "до " + Utils.toLogLength(nextPos) + " " +
+                    "(-" + Utils.toLogPercent(nextPos, file.length()) + "%), " +
+                    "было перемещено " + chunkMoveTotal + " чанков.");
+            file.setLength(nextPos);
+        }
+
+        this.flush();
+        this.recreateIndexes();
+    }
+
+    /**
+     * То же, что {@link #clearUnusedSpace()}, но чанки не двигаются внутри файла, а копируются по порядку секторов
+     * во временный файл рядом через {@link FileChannel#transferTo}, без буферов в куче.
+     * Новый файл записывается на диск ({@code fsync}) и атомарно подменяет старый, поэтому прерванная
+     * очистка оставляет регион нетронутым, а не наполовину перемешанным.
+     * @return чанки, которые не попали в новый файл, потому что их сектора внутри заголовка региона или за концом файла
+     */
+    public List<StructureProblem> clearUnusedSpaceByCopy() {
+        return this.clearUnusedSpaceByCopy(null);
+    }
+
+    /**
+     * То же, что {@link #clearUnusedSpaceByCopy()}, но часть чанков при копировании заменяется новыми данными
+     * @param replacements массив из 1024 элементов по индексу {@code x + z * 32}, каждый элемент это полная запись чанка
+     *                     (длина, версия сжатия и сжатые данные) или null, чтобы скопировать чанк как есть.
+     *                     Может быть null, тогда ничего не заменяется
+     */
+    public List<StructureProblem> clearUnusedSpaceByCopy(ByteBuffer[] replacements) {
+        return this.clearUnusedSpaceByCopy(replacements, ChunkOrder.SECTOR);
+    }
+
+    /**
+     * То же, что {@link #clearUnusedSpaceByCopy(ByteBuffer[])}, но чанки в новом файле идут в указанном порядке
+     */
+    public List<StructureProblem> clearUnusedSpaceByCopy(ByteBuffer[] replacements, ChunkOrder order) {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.COMPACT);
+        lock.writeLock().lock();
+        try {
+            return this.clearUnusedSpaceByCopy0(replacements, order);
+        } finally {
+            lock.writeLock().unlock();
+            Metrics.stop(timer);
+        }
+    }
+
+    @SneakyThrows
+    private List<StructureProblem> clearUnusedSpaceByCopy0(ByteBuffer[] replacements, ChunkOrder order) {
+        this.checkWritable();
+        this.flush();
+
+        File parentDir = fileName.getAbsoluteFile().getParentFile();
+        File temp = new File(parentDir, fileName.getName() + ".tmp");
+        long lengthBefore = file.length();
+        int[] newOffsets = new int[SECTOR_INTS];
+        int[] newTimestamps = chunkTimestamps.clone();
+        List<StructureProblem> dropped = new ArrayList<>();
+        long nextPos = 2 * SECTOR_BYTES;
+
+        boolean moved = false;
+        try {
+            try (FileChannel out = FileChannel.open(temp.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                FileChannel in = file.getChannel();
+                ByteBuffer zeros = ByteBuffer.wrap(emptySector).asReadOnlyBuffer();
+                List<ChunkOffset> chunks = this.getChunksBySector();
+                if (order == ChunkOrder.MORTON) {
+                    chunks.sort(Comparator.comparingInt(chunk -> morton(chunk.getX(), chunk.getZ())));
+                }
+                for (ChunkOffset chunkOffset : chunks) {
+                    int sectorNumber = chunkOffset.getOffset() >> 8;
+                    int numSectors = chunkOffset.getOffset() & 0xFF;
+                    if (sectorNumber < 2 || sectorNumber + numSectors > sectorAllocator.size()) {
+                        // такой чанк и так не прочитать, в новый файл он не попадет
+                        newTimestamps[chunkOffset.getX() + chunkOffset.getZ() * 32] = 0;
+                        dropped.add(new StructureProblem(chunkOffset.getX(), chunkOffset.getZ(),
+                                "сектора " + sectorNumber + "-" + (sectorNumber + numSectors - 1) + " " +
+                                        "не попадают в файл (" + sectorAllocator.size() + " секторов), " +
+                                        "чанк удален при очистке копированием"));
+                        continue;
+                    }
+
+                    ByteBuffer replacement = replacements != null ? replacements[chunkOffset.getX() + chunkOffset.getZ() * 32] : null;
+                    long bytes;
+                    if (replacement != null) {
+                        ByteBuffer data = replacement.duplicate();
+                        bytes = data.remaining();
+                        while (data.hasRemaining()) {
+                            out.write(data, nextPos + bytes - data.remaining());
+                        }
+                    } else {
+                        long pos = (long) sectorNumber * SECTOR_BYTES;
+                        int length = mappedFile != null ? mappedFile.getInt((int) pos) : this.readChunkHeader(pos).getInt(0);
+                        bytes = 4L + length;
+                        if (length <= 0 || bytes > (long) numSectors * SECTOR_BYTES) {
+                            bytes = (long) numSectors * SECTOR_BYTES; // непонятная длина, переносим выделенные сектора как есть
+                        }
+                        Utils.transferFully(in, pos, bytes, out, nextPos);
+                    }
+                    int sectors = (int) ((bytes + SECTOR_BYTES - 1) / SECTOR_BYTES);
+
+                    zeros.clear().limit((int) (sectors * SECTOR_BYTES - bytes));
+                    out.write(zeros, nextPos + bytes);
+
+                    newOffsets[chunkOffset.getX() + chunkOffset.getZ() * 32] = (int) (nextPos / SECTOR_BYTES) << 8 | sectors;
+                    nextPos += (long) sectors * SECTOR_BYTES;
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(SECTOR_BYTES * 2);
+                header.asIntBuffer().put(newOffsets).put(newTimestamps);
+                out.write(header, 0);
+                out.force(true);
+                Metrics.addBytesWritten(nextPos);
+            }
+
+            this.unmap();
+            file.close();
+            try {
+                Files.move(temp.toPath(), fileName.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), fileName.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                file = new RandomAccessFile(fileName, "rw");
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                // старый регион остался на месте, недописанная копия рядом с ним не нужна
+                Try.ignore(() -> Files.deleteIfExists(temp.toPath()));
+            }
+        }
+        // без этого после сбоя питания каталог может все еще указывать на старый файл
+        Utils.fsyncDirectory(parentDir);
+
+        if (lengthBefore > nextPos) {
+            System.out.println("Сокращаем длину региона " + this.getFileName() + " " +
+                    "с " + Utils.toLogLength(lengthBefore) + " " +
+                    "до " + Utils.toLogLength(nextPos) + " " +
+                    "(-" + Utils.toLogPercent(nextPos, lengthBefore) + "%) копированием в новый файл.");
+        }
+
+        this.recreateIndexes();
+        return dropped;
+    }
+
+    /**
+     * Порядок чанков в файле после очистки копированием
+     */
+    public enum ChunkOrder {
+        /** как они уже лежат в файле, чанки сдвигаются меньше всего */
+        SECTOR,
+        /**
+         * по кривой Мортона (Z-order) от координат в регионе: соседние чанки оказываются рядом в файле,
+         * и загрузка области вокруг игрока читает файл почти последовательно
+         */
+        MORTON,
+    }
+
+    /* interleaves the bits of x and z (0-31), so that chunks close on the map get close codes */
+    static int morton(int x, int z) {
+        int code = 0;
+        for (int bit = 0; bit < 5; bit++) {
+            code |= ((x >> bit) & 1) << (2 * bit);
+            code |= ((z >> bit) & 1) << (2 * bit + 1);
+        }
+        return code;
+    }
+
+    /* present chunks sorted by their position in the file */
+    private List<ChunkOffset> getChunksBySector() {
+        List<ChunkOffset> offsets = new ArrayList<>(this.offsets.length);
+        for (int x = 0; x < 32; x++) {
+            for (int z = 0; z < 32; z++) {
+                if (this.hasChunk(x, z)) {
+                    offsets.add(new ChunkOffset(this.getOffset(x, z), x, z));
+                }
+            }
+        }
+        offsets.sort(Comparator.comparingInt(ChunkOffset::getOffset));
+        return offsets;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class ChunkOffset {
+        private int offset;
+        private int x;
+        private int z;
+    }
+
+    /**
+     * Проверить структуру региона только по таблице смещений и 5-байтовым заголовкам чанков, ничего не распаковывая.
+     * Находит смещения за концом файла или внутри заголовка региона, пересекающиеся чанки,
+     * длину больше выделенных секторов и неизвестную версию сжатия.
+     * @return проблемные чанки, по одной записи на чанк
+     */
+    public List<StructureProblem> checkStructure() {
+        lock.readLock().lock();
+        try {
+            return this.checkStructure0();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @SneakyThrows
+    private List<StructureProblem> checkStructure0() {
+        List<StructureProblem> problems = new ArrayList<>();
+        long fileLength = file.length();
+        int nSectors = (int) (fileLength / SECTOR_BYTES);
+
+        // по порядку секторов, чтобы заголовки читались последовательно
+        List<ChunkOffset> offsets = this.getChunksBySector();
+
+        ChunkOffset[] owners = new ChunkOffset[nSectors];
+        boolean[] bad = new boolean[SECTOR_INTS];
+        for (ChunkOffset chunk : offsets) {
+            int sectorNumber = chunk.getOffset() >> 8;
+            int numSectors = chunk.getOffset() & 0xFF;
+            int x = chunk.getX();
+            int z = chunk.getZ();
+
+            String problem = null;
+            if (sectorNumber < 2) {
+                problem = "смещение указывает на заголовок региона (сектор " + sectorNumber + ")";
+            } else if (numSectors == 0) {
+                problem = "чанк занимает 0 секторов";
+            } else if (sectorNumber + numSectors > nSectors) {
+                problem = "сектора " + sectorNumber + "-" + (sectorNumber + numSectors - 1) + " " +
+                        "выходят за конец файла (" + nSectors + " секторов)";
+            } else {
+                for (int i = sectorNumber; i < sectorNumber + numSectors; i++) {
+                    ChunkOffset owner = owners[i];
+                    if (owner != null) {
+                        if (!bad[owner.getX() + owner.getZ() * 32]) {
+                            bad[owner.getX() + owner.getZ() * 32] = true;
+                            problems.add(new StructureProblem(owner.getX(), owner.getZ(),
+                                    "сектор " + i + " пересекается с чанком x=" + x + " z=" + z));
+                        }
+                        if (problem == null) {
+                            problem = "сектор " + i + " пересекается с чанком x=" + owner.getX() + " z=" + owner.getZ();
+                        }
+                    } else {
+                        owners[i] = chunk;
+                    }
+                }
+
+                if (problem == null) {
+                    long pos = (long) sectorNumber * SECTOR_BYTES;
+                    ByteBuffer header = mappedFile != null ? mappedFile : this.readChunkHeader(pos);
+                    int index = mappedFile != null ? (int) pos : 0;
+                    int length = header.getInt(index);
+                    byte version = header.get(index + 4);
+                    if (length <= 1) {
+                        problem = "длина данных " + length;
+                    } else if (length > SECTOR_BYTES * numSectors - (CHUNK_HEADER_SIZE - 1)) {
+                        problem = "длина данных " + length + " не помещается в выделенные сектора 4096 * " + numSectors;
+                    } else if (version != VERSION_GZIP && version != VERSION_DEFLATE) {
+                        problem = "неизвестная версия сжатия " + version;
+                    }
+                }
+            }
+
+            if (problem != null && !bad[x + z * 32]) {
+                bad[x + z * 32] = true;
+                problems.add(new StructureProblem(x, z, problem));
+            }
+        }
+        return problems;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class StructureProblem {
+        private final int x;
+        private final int z;
+        private final String message;
+    }
+
+    public String getFileName() {
+        return fileName.getName();
+    }
+
+    /* the modification date of the region file when it was first opened */
+    public long lastModified() {
+        return lastModified;
+    }
+
+    /* gets how much the region file has grown since it was last checked */
+    public int getSizeDelta() {
+        lock.writeLock().lock();
+        try {
+            int ret = sizeDelta;
+            sizeDelta = 0;
+            return ret;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // various small debug printing helpers
+    private void debug(String in) {
+//        System.out.print(in);
+    }
+
+    private void debugln(String in) {
+        debug(in + "\n");
+    }
+
+    private void debug(String mode, int x, int z, String in) {
+        debug("REGION " + mode + " " + fileName.getName() + "[" + x + "," + z + "] = " + in);
+    }
+
+    private void debug(String mode, int x, int z, int count, String in) {
+        debug("REGION " + mode + " " + fileName.getName() + "[" + x + "," + z + "] " + count + "B = " + in);
+    }
+
+    private void debugln(String mode, int x, int z, String in) {
+        debug(mode, x, z, in + "\n");
+    }
+
+    /*
+     * gets an (uncompressed) stream representing the chunk data returns null if
+     * the chunk is not found or an error occurs
+     */
+    public DataInputStream getChunkDataInputStream(int x, int z) {
+        ChunkPayload payload = readChunkPayload(x, z);
+        return payload == null ? null : payload.getInputStream(true);
+    }
+
+    /*
+     * reads the compressed chunk data without inflating it, returns null if
+     * the chunk is not found or an error occurs
+     */
+    public ChunkPayload readChunkPayload(int x, int z) {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.READ);
+        lock.readLock().lock();
+        try {
+            return this.readChunkPayload0(x, z);
+        } finally {
+            lock.readLock().unlock();
+            Metrics.stop(timer);
+        }
+    }
+
+    @SneakyThrows
+    private ChunkPayload readChunkPayload0(int x, int z) {
+        if (outOfBounds(x, z)) {
+            debugln("READ", x, z, "out of bounds");
+            return null;
+        }
+
+        int offset = getOffset(x, z);
+        if (offset == 0) {
+            // debugln("READ", x, z, "miss");
+            return null;
+        }
+
+        int sectorNumber = offset >> 8;
+        int numSectors = offset & 0xFF;
+
+        if (sectorNumber + numSectors > sectorAllocator.size()) {
+            debugln("READ", x, z, "invalid sector");
+            return null;
+        }
+
+        long pos = (long) sectorNumber * SECTOR_BYTES;
+        ByteBuffer header = mappedFile != null ? mappedFile : this.readChunkHeader(pos);
+        int index = mappedFile != null ? (int) pos : 0;
+        int length = header.getInt(index);
+
+        // длина не считает свои 4 байта, а с ними запись должна уместиться в выделенные сектора
+        if (length <= 1 || length > SECTOR_BYTES * numSectors - (CHUNK_HEADER_SIZE - 1)) {
+            debugln("READ", x, z, "invalid length: " + length + " for 4096 * " + numSectors);
+            return null;
+        }
+
+        byte version = header.get(index + 4);
+        if (version == VERSION_GZIP || version == VERSION_DEFLATE) {
+            ByteBuffer data;
+            if (mappedFile != null) {
+                data = mappedFile.duplicate();
+                data.position((int) pos + CHUNK_HEADER_SIZE);
+                data.limit((int) pos + CHUNK_HEADER_SIZE + length - 1);
+                data = data.slice();
+                mapping.retain();
+                Metrics.addBytesRead(length + 4);
+                return new ChunkPayload(x, z, version, data, null, mapping);
+            } else {
+                byte[] bytes = Pools.acquireBuffer(length - 1);
+                try {
+                    Utils.readFully(file.getChannel(), ByteBuffer.wrap(bytes, 0, length - 1), pos + CHUNK_HEADER_SIZE);
+                } catch (Exception e) {
+                    Pools.releaseBuffer(bytes);
+                    throw e;
+                }
+                Metrics.addBytesRead(length + 4);
+                data = ByteBuffer.wrap(bytes, 0, length - 1);
+                return new ChunkPayload(x, z, version, data, bytes);
+            }
+        }
+
+        debugln("READ", x, z, "unknown version " + version);
+        return null;
+    }
+
+    /**
+     * Прочитать чанки по порядку их секторов в файле, а не по координатам. Соседние чанки (и чанки через небольшую дыру)
+     * читаются одним последовательным чтением до {@link #SCAN_READ_BYTES}, после чего данные каждого чанка копируются
+     * в отдельный буфер из {@link Pools}, как в {@link #readChunkPayload(int, int)}. На HDD и сетевых дисках это
+     * несколько больших чтений вместо случайного чтения на каждый чанк.
+     * <p>
+     * Очередное чтение делается при переходе к первому чанку следующей группы, под блокировкой на чтение,
+     * поэтому между шагами обхода чанки можно удалять. Изменения смещений, сделанные во время обхода, в нем не учитываются.
+     * Для региона, отображенного в память, чанки просто отдаются по порядку секторов без копирования.
+     * @param wanted массив из 1024 элементов по индексу {@code x + z * 32}, какие чанки читать, либо null, чтобы прочитать все
+     * @return чанки по порядку секторов, для каждого данные или null, если чанк не удалось прочитать
+     */
+    public Iterable<ScannedChunk> scanBySector(boolean[] wanted) {
+        return this.scanBySector(wanted, null);
+    }
+
+    /**
+     * То же, что {@link #scanBySector(boolean[])}, но перед тем, как достать данные очередного чанка, в бюджете
+     * резервируется память под них и распакованный NBT, см. {@link ScannedChunk#getReserved()}. Резерв нужно
+     * освободить самому, когда чанк обработан. Буфер группового чтения ({@link #SCAN_READ_BYTES} на каждый
+     * обходимый регион) в бюджет не входит, это фиксированный запас сверх него
+     * @param budget бюджет памяти, может быть null
+     */
+    public Iterable<ScannedChunk> scanBySector(boolean[] wanted, MemoryBudget budget) {
+        List<ChunkOffset> chunks = new ArrayList<>();
+        for (ChunkOffset chunk : this.getChunksBySector()) {
+            if (wanted == null || wanted[chunk.getX() + chunk.getZ() * 32]) {
+                chunks.add(chunk);
+            }
+        }
+        return () -> new SectorScanner(chunks, budget);
+    }
+
+    /**
+     * Перенос одного чанка для {@link #transplantChunks(Collection)}, координаты от 0 до 31 внутри региона
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class ChunkMove {
+        private final File source;
+        private final int sourceX;
+        private final int sourceZ;
+        private final File target;
+        private final int x;
+        private final int z;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class ScannedChunk {
+        private final int x;
+        private final int z;
+
+        /**
+         * Данные чанка, либо null, если чанк не удалось прочитать
+         */
+        private final ChunkPayload payload;
+
+        /**
+         * Сколько памяти зарезервировано под чанк в {@link MemoryBudget}, 0 без бюджета
+         */
+        private final long reserved;
+    }
+
+    /* walks chunks in sector order, reading groups of nearby chunks with one positional read each */
+    private class SectorScanner implements Iterator<ScannedChunk> {
+        private final List<ChunkOffset> chunks;
+        private final MemoryBudget budget;
+        private int next;
+
+        /* current read: chunks [next, runEnd) are inside buffer, which starts at sector runSector */
+        private int runEnd;
+        private long runSector;
+        private byte[] buffer;
+        private boolean runFailed;
+
+        SectorScanner(List<ChunkOffset> chunks, MemoryBudget budget) {
+            this.chunks = chunks;
+            this.budget = budget;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < chunks.size()) {
+                return true;
+            }
+            if (buffer != null) {
+                Pools.releaseBuffer(buffer);
+                buffer = null;
+            }
+            return false;
+        }
+
+        @Override
+        @SneakyThrows
+        public ScannedChunk next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ChunkOffset chunk = chunks.get(next);
+            // резерв до чтения, чтобы при исчерпанном бюджете поток ждал, а не держал в памяти лишние данные
+            long reserved = 0;
+            if (budget != null) {
+                reserved = budget.estimateChunk((long) (chunk.getOffset() & 0xFF) * SECTOR_BYTES);
+                budget.acquire(reserved);
+            }
+            try {
+                return new ScannedChunk(chunk.getX(), chunk.getZ(), this.fetch(chunk), reserved);
+            } catch (Throwable e) {
+                if (budget != null) {
+                    budget.release(reserved);
+                }
+                throw e;
+            }
+        }
+
+        private ChunkPayload fetch(ChunkOffset chunk) {
+            if (mappedFile != null) {
+                next++;
+                return this.readSingle(chunk);
+            }
+            if (next >= runEnd) {
+                this.readRun();
+            }
+            next++;
+            if (runFailed || !this.inBounds(chunk)) {
+                return this.readSingle(chunk);
+            }
+            return this.slice(chunk);
+        }
+
+        /* reads chunks starting at next and all following chunks that fit into one read */
+        private void readRun() {
+            ChunkOffset first = chunks.get(next);
+            runEnd = next + 1;
+            runFailed = false;
+            if (!this.inBounds(first)) {
+                return;
+            }
+            runSector = first.getOffset() >> 8;
+            long endSector = runSector + (first.getOffset() & 0xFF);
+            while (runEnd < chunks.size()) {
+                ChunkOffset chunk = chunks.get(runEnd);
+                long sector = chunk.getOffset() >> 8;
+                long chunkEnd = Math.max(endSector, sector + (chunk.getOffset() & 0xFF));
+                if (!this.inBounds(chunk) || sector > endSector + SCAN_MAX_GAP_SECTORS
+                        || (chunkEnd - runSector) * SECTOR_BYTES > SCAN_READ_BYTES) {
+                    break;
+                }
+                endSector = chunkEnd;
+                runEnd++;
+            }
+
+            int length = (int) ((endSector - runSector) * SECTOR_BYTES);
+            if (buffer == null) {
+                buffer = Pools.acquireBuffer(SCAN_READ_BYTES);
+            }
+            Metrics.Timer timer = Metrics.start(Metrics.Phase.READ);
+            lock.readLock().lock();
+            try {
+                Utils.readFully(file.getChannel(), ByteBuffer.wrap(buffer, 0, length), runSector * SECTOR_BYTES);
+            } catch (Exception e) {
+                runFailed = true; // например, файл короче, чем выделенные сектора, читаем такие чанки по одному
+            } finally {
+                lock.readLock().unlock();
+                Metrics.stop(timer);
+            }
+        }
+
+        private boolean inBounds(ChunkOffset chunk) {
+            return (chunk.getOffset() >> 8) + (chunk.getOffset() & 0xFF) <= sectorAllocator.size();
+        }
+
+        /* same checks as readChunkPayload, but over the bytes already read */
+        private ChunkPayload slice(ChunkOffset chunk) {
+            int numSectors = chunk.getOffset() & 0xFF;
+            if (numSectors == 0) {
+                return null;
+            }
+            int pos = (int) (((chunk.getOffset() >> 8) - runSector) * SECTOR_BYTES);
+            ByteBuffer header = ByteBuffer.wrap(buffer);
+            int length = header.getInt(pos);
+            byte version = header.get(pos + 4);
+            if (length <= 1 || length > SECTOR_BYTES * numSectors - (CHUNK_HEADER_SIZE - 1)
+                    || version != VERSION_GZIP && version != VERSION_DEFLATE) {
+                debugln("SCAN", chunk.getX(), chunk.getZ(), "invalid length " + length + " or version " + version);
+                return null;
+            }
+            byte[] bytes = Pools.acquireBuffer(length - 1);
+            System.arraycopy(buffer, pos + CHUNK_HEADER_SIZE, bytes, 0, length - 1);
+            Metrics.addBytesRead(length + 4);
+            return new ChunkPayload(chunk.getX(), chunk.getZ(), version, ByteBuffer.wrap(bytes, 0, length - 1), bytes);
+        }
+
+        private ChunkPayload readSingle(ChunkOffset chunk) {
+            try {
+                return RegionFile.this.readChunkPayload(chunk.getX(), chunk.getZ());
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    /* reads the 5-byte chunk header (length and version) at pos without touching the file pointer */
+    private ByteBuffer readChunkHeader(long pos) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+        Utils.readFully(file.getChannel(), header, pos);
+        return header;
+    }
+
+    public DataOutputStream getChunkDataOutputStream(int x, int z) {
+        return this.getChunkDataOutputStream(x, z, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level уровень сжатия deflate от 0 до 9
+     */
+    public DataOutputStream getChunkDataOutputStream(int x, int z, int level) {
+        this.checkWritable();
+        if (outOfBounds(x, z)) {
+            return null;
+        }
+
+        return new DataOutputStream(Pools.deflate(new ChunkBuffer(x, z), level));
+    }
+
+    /* write a chunk at (x,z) with length bytes of data to disk */
+    protected void write(int x, int z, byte[] data, int length) {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.CHUNK_WRITE);
+        lock.writeLock().lock();
+        try {
+            this.write0(x, z, data, length);
+        } finally {
+            lock.writeLock().unlock();
+            Metrics.stop(timer);
+        }
+    }
+
+    @SneakyThrows
+    private void write0(int x, int z, byte[] data, int length) {
+        this.checkWritable();
+        int sectorsNeeded = (length + CHUNK_HEADER_SIZE) / SECTOR_BYTES + 1;
+
+        // maximum chunk size is 1MB
+        if (sectorsNeeded >= 256) {
+            return;
+        }
+
+        int sectorNumber = this.allocate(x, z, sectorsNeeded, length);
+        write(sectorNumber, data, length);
+        setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
+    }
+
+    /* finds sectors for the chunk at (x,z), reusing its old ones if the size matches, and sets its offset */
+    @SneakyThrows
+    private int allocate(int x, int z, int sectorsNeeded, int length) {
+        int offset = getOffset(x, z);
+        int sectorNumber = offset >> 8;
+        int sectorsAllocated = offset & 0xFF;
+
+        if (sectorNumber != 0 && sectorsAllocated == sectorsNeeded) {
+            /* we can simply overwrite the old sectors */
+            debug("SAVE", x, z, length, "rewrite");
+            return sectorNumber;
+        }
+
+        /* we need to allocate new sectors */
+
+        /* mark the sectors previously used for this chunk as free */
+        if (sectorNumber != 0) {
+            sectorAllocator.free(sectorNumber, sectorsAllocated);
+        }
+
+        /* take the smallest free space large enough to store this chunk */
+        int runStart = sectorAllocator.allocate(sectorsNeeded);
+
+        if (runStart != -1) {
+            /* we found a free space large enough */
+            debug("SAVE", x, z, length, "reuse");
+            sectorNumber = runStart;
+        } else {
+            /*
+             * no free space large enough found -- we need to grow the
+             * file
+             */
+            debug("SAVE", x, z, length, "grow");
+            sectorNumber = sectorAllocator.grow(sectorsNeeded);
+            file.setLength((long) sectorAllocator.size() * SECTOR_BYTES);
+            sizeDelta += SECTOR_BYTES * sectorsNeeded;
+            this.remap();
+        }
+        setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
+        return sectorNumber;
+    }
+
+    /**
+     * Записать чанк в том виде, в каком он лежит в файле региона (4 байта длины, версия сжатия и сжатые данные),
+     * скопировав его из другого файла без распаковки и без буферов в куче ({@link FileChannel#transferTo}).
+     * Сектора выделяются так же, как при обычной записи чанка
+     * @param in        файл, из которого копируется чанк, его позиция не меняется
+     * @param position  где в нем начинается чанк
+     * @param count     сколько байт копировать вместе с длиной и версией
+     * @param timestamp время изменения чанка в секундах, как в заголовке региона
+     */
+    public void writeRawChunk(int x, int z, FileChannel in, long position, int count, int timestamp) {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.CHUNK_WRITE);
+        lock.writeLock().lock();
+        try {
+            this.writeRawChunk0(x, z, in, position, count, timestamp);
+        } finally {
+            lock.writeLock().unlock();
+            Metrics.stop(timer);
+        }
+    }
+
+    @SneakyThrows
+    private void writeRawChunk0(int x, int z, FileChannel in, long position, int count, int timestamp) {
+        this.checkWritable();
+        int sectorsNeeded = (count + SECTOR_BYTES - 1) / SECTOR_BYTES;
+        if (outOfBounds(x, z) || count < CHUNK_HEADER_SIZE || sectorsNeeded >= 256) {
+            throw new IllegalArgumentException("Чанк x=" + x + " z=" + z + " размером " + count + " байт нельзя записать в регион " + this.getFileName());
+        }
+
+        int sectorNumber = this.allocate(x, z, sectorsNeeded, count);
+        debugln(" " + sectorNumber);
+        Utils.transferFully(in, position, count, file.getChannel(), (long) sectorNumber * SECTOR_BYTES);
+        Metrics.addBytesWritten(count);
+        setTimestamp(x, z, timestamp);
+    }
+
+    /**
+     * Скопировать чанк в том виде, в каком он лежит в файле (4 байта длины, версия сжатия и сжатые данные), в другой файл
+     * без распаковки и без буферов в куче, например чтобы сохранить его перед удалением. Если длина в заголовке чанка
+     * испорчена, копируются все выделенные ему сектора
+     * @param out         куда копировать, позиция канала меняется
+     * @param outPosition с какой позиции писать
+     * @return сколько байт скопировано, либо -1, если чанка нет или его сектора за концом файла
+     */
+    public int transferChunkTo(int x, int z, FileChannel out, long outPosition) {
+        Metrics.Timer timer = Metrics.start(Metrics.Phase.READ);
+        lock.readLock().lock();
+        try {
+            return this.transferChunkTo0(x, z, out, outPosition);
+        } finally {
+            lock.readLock().unlock();
+            Metrics.stop(timer);
+        }
+    }
+
+    @SneakyThrows
+    private int transferChunkTo0(int x, int z, FileChannel out, long outPosition) {
+        int count = this.rawChunkLength(x, z);
+        if (count < 0) {
+            return -1;
+        }
+        Utils.transferFully(file.getChannel(), this.rawChunkPosition(x, z), count, out, outPosition);
+        Metrics.addBytesRead(count);
+        return count;
+    }
+
+    /* size of the chunk record as it is in the file, all its sectors if the length is broken, or -1 if there is nothing to copy */
+    @SneakyThrows
+    private int rawChunkLength(int x, int z) {
+        if (outOfBounds(x, z) || getOffset(x, z) == 0) {
+            return -1;
+        }
+        int sectorNumber = getOffset(x, z) >> 8;
+        int numSectors = getOffset(x, z) & 0xFF;
+        long pos = this.rawChunkPosition(x, z);
+        if (sectorNumber < 2 || numSectors == 0 || pos + (long) numSectors * SECTOR_BYTES > file.length()) {
+            return -1;
+        }
+
+        int length = mappedFile != null ? mappedFile.getInt((int) pos) : this.readChunkHeader(pos).getInt(0);
+        return length > 0 && length <= numSectors * SECTOR_BYTES - 4 ? length + 4 : numSectors * SECTOR_BYTES;
+    }
+
+    private long rawChunkPosition(int x, int z) {
+        return (long) (getOffset(x, z) >> 8) * SECTOR_BYTES;
+    }
+
+    /**
+     * Скопировать чанк из другого региона в этот без распаковки: сжатые данные, версия сжатия и время изменения
+     * переносятся как есть, сектора выделяются как при обычной записи, а данные копируются из файла в файл
+     * ({@link FileChannel#transferTo}), минуя кучу. Исходный регион не меняется.
+     * <p>
+     * Заголовок этого региона меняется только в памяти и записывается в {@link #flush()} или {@link #close()},
+     * поэтому перенос тысяч чанков в один регион записывает его заголовок один раз, см. {@link #transplantChunks(Collection)}.
+     * Пока чанк копируется, исходный регион заблокирован на чтение, а этот на запись, поэтому не стоит одновременно
+     * переносить чанки между двумя регионами в обе стороны из разных потоков.
+     * @param source исходный регион, это должен быть другой файл
+     * @return false, если в исходном регионе нет такого чанка или его сектора за концом файла
+     */
+    public boolean transplantChunk(RegionFile source, int sourceX, int sourceZ, int x, int z) {
+        if (normalize(source.fileName).equals(normalize(fileName))) {
+            throw new IllegalArgumentException("Чанк нельзя перенести в тот же регион " + this.getFileName());
+        }
+        source.lock.readLock().lock();
+        try {
+            int count = source.rawChunkLength(sourceX, sourceZ);
+            if (count < 0) {
+                return false;
+            }
+            this.writeRawChunk(x, z, source.file.getChannel(), source.rawChunkPosition(sourceX, sourceZ), count,
+                    source.chunkTimestamps[sourceX + sourceZ * 32]);
+            Metrics.addBytesRead(count);
+            return true;
+        } finally {
+            source.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Перенести много чанков между регионами без распаковки, см. {@link #transplantChunk}. Каждый регион, в который
+     * переносятся чанки, открывается один раз, и его заголовок записывается один раз при закрытии. Чанки из каждого
+     * исходного региона читаются по порядку секторов. Исходные регионы не меняются, если регион, в который
+     * переносятся чанки, не существует, он создается
+     * @return сколько чанков перенесено, чанки, которых нет в исходном регионе, пропускаются
+     */
+    public static int transplantChunks(Collection<ChunkMove> moves) {
+        Map<File, List<ChunkMove>> byTarget = new LinkedHashMap<>();
+        for (ChunkMove move : moves) {
+            File target = normalize(move.getTarget());
+            if (normalize(move.getSource()).equals(target)) {
+                throw new IllegalArgumentException("Чанк нельзя перенести в тот же регион " + target);
+            }
+            byTarget.computeIfAbsent(target, file -> new ArrayList<>()).add(move);
+        }
+
+        int transplanted = 0;
+        for (Map.Entry<File, List<ChunkMove>> entry : byTarget.entrySet()) {
+            Map<File, RegionFile> sources = new HashMap<>();
+            try {
+                List<ChunkMove> targetMoves = entry.getValue();
+                for (ChunkMove move : targetMoves) {
+                    sources.computeIfAbsent(normalize(move.getSource()), file -> new RegionFile(file, true, false));
+                }
+                targetMoves.sort(Comparator.comparing((ChunkMove move) -> normalize(move.getSource()))
+                        .thenComparingInt(move -> sources.get(normalize(move.getSource()))
+                                .getOffset(move.getSourceX(), move.getSourceZ()) >>> 8));
+
+                entry.getKey().getParentFile().mkdirs();
+                try (RegionFile target = new RegionFile(entry.getKey())) {
+                    for (ChunkMove move : targetMoves) {
+                        RegionFile source = sources.get(normalize(move.getSource()));
+                        if (target.transplantChunk(source, move.getSourceX(), move.getSourceZ(), move.getX(), move.getZ())) {
+                            transplanted++;
+                        }
+                    }
+                }
+            } finally {
+                for (RegionFile source : sources.values()) {
+                    source.close();
+                }
+            }
+        }
+        return transplanted;
+    }
+
+    /* absolute path without "." and "..", so that two spellings of the same region compare equal */
+    private static File normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize().toFile();
+    }
+
+    /* write a chunk data to the region file at specified sector number */
+    @SneakyThrows
+    private void write(int sectorNumber, byte[] data, int length) {
+        debugln(" " + sectorNumber);
+        file.seek(sectorNumber * SECTOR_BYTES);
+        file.writeInt(length + 1); // chunk length
+        file.writeByte(VERSION_DEFLATE); // chunk version number
+        file.write(data, 0, length); // chunk data
+        Metrics.addBytesWritten(length + CHUNK_HEADER_SIZE);
+    }
+
+    /* is this an invalid chunk coordinate? */
+    private boolean outOfBounds(int x, int z) {
+        return x < 0 || x >= 32 || z < 0 || z >= 32;
+    }
+
+    public int getOffset(int x, int z) {
+        return offsets[x + z * 32];
+    }
+
+    public boolean hasChunk(int x, int z) {
+        return getOffset(x, z) != 0;
+    }
+
+    public void setOffset(int x, int z, int offset) {
+        this.checkWritable();
+        offsets[x + z * 32] = offset;
+        headerDirty = true;
+    }
+
+    private void setTimestamp(int x, int z, int value) {
+        this.checkWritable();
+        chunkTimestamps[x + z * 32] = value;
+        headerDirty = true;
+    }
+
+    /**
+     * Записать измененные таблицы смещений и времени изменения чанков одной записью на 8 KB
+     */
+    @SneakyThrows
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            if (!headerDirty) {
+                return;
+            }
+            Metrics.Timer timer = Metrics.start(Metrics.Phase.HEADER_WRITE);
+            ByteBuffer header = ByteBuffer.allocate(SECTOR_BYTES * 2);
+            header.asIntBuffer().put(offsets).put(chunkTimestamps);
+            file.seek(0);
+            file.write(header.array());
+            headerDirty = false;
+            Metrics.addBytesWritten(header.capacity());
+            Metrics.stop(timer);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void deleteChunk(int x, int z) {
+        lock.writeLock().lock();
+        try {
+            setOffset(x, z, 0);
+            setTimestamp(x, z, 0);
+            debug("Region deleted chunk");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    @SneakyThrows
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            this.flush();
+            this.unmap();
+            file.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * lets chunk writing be multithreaded by not locking the whole file as a
+     * chunk is serializing -- only writes when serialization is over
+     */
+    class ChunkBuffer extends ByteArrayOutputStream {
+
+        private int x, z;
+        private boolean closed;
+
+        public ChunkBuffer(int x, int z) {
+            super(0);
+            buf = Pools.acquireBuffer(8096); // initialize to 8KB
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                RegionFile.this.write(x, z, buf, count);
+            } finally {
+                Pools.releaseBuffer(buf);
+                buf = new byte[0];
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * Сжатые данные чанка, считанные из региона без распаковки.
+     * Распаковывать можно в любом потоке, файл региона для этого уже не нужен.
+     */
+    @Getter
+    public static class ChunkPayload {
+        private final int x;
+        private final int z;
+        private final byte version;
+
+        /**
+         * Сжатые данные без длины и версии. Если регион отображен в память, это кусок отображения,
+         * которое не освобождается до {@link #release()}
+         */
+        private final ByteBuffer data;
+
+        /**
+         * Буфер из {@link Pools}, в котором лежат данные, null для отображенного в память региона
+         */
+        @Getter(AccessLevel.NONE)
+        private byte[] pooled;
+
+        /**
+         * Отображение, из которого вырезаны данные, null для данных в куче
+         */
+        @Getter(AccessLevel.NONE)
+        private Mapping mapping;
+
+        public ChunkPayload(int x, int z, byte version, ByteBuffer data, byte[] pooled) {
+            this(x, z, version, data, pooled, null);
+        }
+
+        private ChunkPayload(int x, int z, byte version, ByteBuffer data, byte[] pooled, Mapping mapping) {
+            this.x = x;
+            this.z = z;
+            this.version = version;
+            this.data = data;
+            this.pooled = pooled;
+            this.mapping = mapping;
+        }
+
+        public DataInputStream getInputStream() {
+            return this.getInputStream(false);
+        }
+
+        /**
+         * @param releaseOnClose вызвать {@link #release()} при закрытии потока
+         */
+        @SneakyThrows
+        private DataInputStream getInputStream(boolean releaseOnClose) {
+            InputStream in = new ByteBufferInputStream(data.duplicate()) {
+                @Override
+                public void close() {
+                    if (releaseOnClose) {
+                        ChunkPayload.this.release();
+                    }
+                }
+            };
+            if (version == VERSION_GZIP) {
+                return new DataInputStream(Metrics.inflating(new GZIPInputStream(in)));
+            }
+            return new DataInputStream(Metrics.inflating(Pools.inflate(in)));
+        }
+
+        /**
+         * Вернуть буфер с данными в пул или отпустить отображение файла. После этого читать данные чанка нельзя
+         */
+        public synchronized void release() {
+            if (pooled != null) {
+                Pools.releaseBuffer(pooled);
+                pooled = null;
+            }
+            if (mapping != null) {
+                mapping.release();
+                mapping = null;
+            }
+        }
+    }
+
+    /* a file mapping shared by the region and the payloads sliced from it, unmapped when the last of them lets go */
+    private static class Mapping {
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Mapping(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /* only called while the region still holds its own reference, under its lock */
+        void retain() {
+            references.incrementAndGet();
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                Utils.unmap(buffer);
+            }
+        }
+
+        boolean isShared() {
+            return references.get() > 1;
+        }
+    }
+
+    public static byte[] getEmptySector() {
+        return emptySector;
+    }
+
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public int[] getChunkTimestamps() {
+        return chunkTimestamps;
+    }
+
+    public RandomAccessFile getFile() {
+        return file;
+    }
+
+    public SectorAllocator getSectorAllocator() {
+        return sectorAllocator;
+    }
+
+    /**
+     * @deprecated карта секторов теперь хранится в {@link SectorAllocator}, этот метод возвращает ее копию
+     */
+    @Deprecated
+    public ArrayList<Boolean> getSectorFree() {
+        ArrayList<Boolean> sectorFree = new ArrayList<>(sectorAllocator.size());
+        for (int i = 0; i < sectorAllocator.size(); i++) {
+            sectorFree.add(sectorAllocator.isFree(i));
+        }
+        return sectorFree;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
\ No newline at end of file
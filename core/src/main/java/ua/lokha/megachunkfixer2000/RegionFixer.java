@@ -0,0 +1,374 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.SneakyThrows;
+import ua.lokha.megachunkfixer2000.rule.ChunkRules;
+import ua.lokha.megachunkfixer2000.rule.RegionContext;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Проверка и исправление одного файла региона: удаляет кривые чанки и, по желанию, чистит неиспользуемое пространство.
+ * Один экземпляр можно использовать из нескольких потоков одновременно для разных регионов.
+ */
+@Getter
+@Setter
+public class RegionFixer {
+
+    /**
+     * Правила проверки чанков, по умолчанию все, что есть в classpath. Теги, которые не нужны правилам, при чтении пропускаются
+     */
+    private ChunkRules rules = ChunkRules.load(null);
+
+    private boolean clearUnusedSpace;
+
+    /**
+     * Очищать неиспользуемое пространство копированием в новый файл, см. {@link RegionFile#clearUnusedSpaceByCopy()}
+     */
+    private boolean clearUnusedSpaceByCopy;
+
+    /**
+     * Порядок чанков в файле после очистки копированием
+     */
+    private RegionFile.ChunkOrder chunkOrder = RegionFile.ChunkOrder.SECTOR;
+
+    /**
+     * Если не null, сюда складывается расположение чанков в регионах до и после очистки, см. {@link Locality}
+     */
+    private Locality localityBefore;
+    private Locality localityAfter;
+    private boolean deleteEmptyRegions;
+
+    /**
+     * Читать регионы через отображение файла в память, см. {@link RegionFile#RegionFile(File, boolean, boolean)}
+     */
+    private boolean mapped;
+
+    /**
+     * Только сообщать о кривых чанках, ничего не меняя в файлах. Регионы открываются только для чтения
+     */
+    private boolean dryRun;
+
+    /**
+     * Пул для параллельной распаковки и проверки чанков внутри одного региона.
+     * Если null, чанки проверяются по очереди в потоке, который обрабатывает регион.
+     */
+    private ExecutorService chunkExecutor;
+
+    /**
+     * Индекс прошлой проверки для режима {@code --incremental}. Если не null, пропускаются регионы и чанки,
+     * которые не менялись с прошлой проверки, а после проверки индекс обновляется
+     */
+    private ScanIndex scanIndex;
+
+    /**
+     * Если не null, после проверки чанки региона пересжимаются, а регион переписывается без неиспользуемого пространства
+     */
+    private Recompressor recompressor;
+
+    /**
+     * Куда сообщать о кривых чанках
+     */
+    private ProblemSink problemSink = ProblemSink.STDOUT;
+
+    /**
+     * Если не null, перед чтением каждого чанка в нем резервируется память, см. {@link MemoryBudget}
+     */
+    private MemoryBudget memoryBudget;
+
+    /**
+     * Если не null, каждый чанк перед удалением сохраняется сюда. Если сохранить не удалось, чанк не удаляется
+     */
+    private ChunkArchive archive;
+
+    /**
+     * Проверить регион и удалить из него кривые чанки
+     * @return количество удаленных чанков
+     */
+    public int fix(File file) throws Exception {
+        int deleted = 0;
+        int chunkCount = 0;
+
+        ScanIndex.RegionState lastState = scanIndex != null ? scanIndex.load(file) : null;
+        if (lastState != null && lastState.isUnchanged(file)
+                && (!clearUnusedSpace && recompressor == null || lastState.isCompacted())
+                && (!deleteEmptyRegions || lastState.hasChunks())) {
+            scanIndex.getSkippedRegions().incrementAndGet();
+            return 0;
+        }
+
+        ScanIndex.RegionState state;
+        RegionContext context = new RegionContext(file, problemSink);
+        try (RegionFile regionFile = new RegionFile(file, dryRun, mapped)) {
+            // при параллельной проверке задачи отдаются в пул сразу, чтобы резервы памяти освобождались, пока читаются следующие чанки
+            List<Future<ChunkProblem>> results = new ArrayList<>();
+            try {
+                boolean[] wanted = new boolean[RegionFile.SECTOR_INTS];
+                for (int x = 0; x < 32; x++) {
+                    for (int z = 0; z < 32; z++) {
+                        if (regionFile.hasChunk(x, z)) {
+                            if (lastState != null && lastState.isUnchanged(regionFile, x, z)) {
+                                scanIndex.getSkippedChunks().incrementAndGet();
+                                chunkCount++;
+                            } else {
+                                wanted[x + z * 32] = true;
+                            }
+                        }
+                    }
+                }
+
+                // по порядку секторов, чтобы регион читался несколькими последовательными чтениями
+                // память под каждый чанк резервируется в обходе, до того как он прочитан
+                for (RegionFile.ScannedChunk scanned : regionFile.scanBySector(wanted, memoryBudget)) {
+                    int x = scanned.getX();
+                    int z = scanned.getZ();
+                    long reserved = scanned.getReserved();
+                    RegionFile.ChunkPayload payload = scanned.getPayload();
+
+                    ChunkProblem problem;
+                    if (payload == null) {
+                        this.unreserve(reserved);
+                        problem = this.report(regionFile, x, z, ChunkProblem.Reason.READ_ERROR, null);
+                    } else if (chunkExecutor != null) {
+                        // распаковываем и проверяем параллельно, а удаляем уже после чтения всех чанков, в одном потоке
+                        RegionFile.ChunkPayload task = payload;
+                        results.add(chunkExecutor.submit(() -> {
+                            try {
+                                return this.checkChunk(context, task);
+                            } finally {
+                                this.unreserve(reserved);
+                                Metrics.addThreadAllocation();
+                            }
+                        }));
+                        continue;
+                    } else {
+                        try {
+                            problem = this.checkChunk(context, payload);
+                        } finally {
+                            this.unreserve(reserved);
+                        }
+                    }
+
+                    if (problem != null && this.deleteChunk(regionFile, problem)) {
+                        deleted++;
+                    } else {
+                        chunkCount++;
+                    }
+                }
+
+                for (Future<ChunkProblem> result : results) {
+                    ChunkProblem problem = result.get();
+                    if (problem != null && this.deleteChunk(regionFile, problem)) {
+                        deleted++;
+                    } else {
+                        chunkCount++;
+                    }
+                }
+            } finally {
+                // регион нельзя закрывать, пока задачи читают данные из его отображения в память
+                for (Future<ChunkProblem> result : results) {
+                    try {
+                        result.get();
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+
+            int dropped = this.clearUnusedSpace(regionFile);
+            deleted += dropped;
+            chunkCount -= dropped;
+            state = new ScanIndex.RegionState(0, 0, clearUnusedSpace || recompressor != null,
+                    regionFile.getOffsets().clone(), regionFile.getChunkTimestamps().clone());
+        }
+
+        this.deleteIfEmpty(file, chunkCount);
+        this.saveState(file, state);
+        return deleted;
+    }
+
+    /**
+     * Запомнить, что все оставшиеся чанки региона проверены. Размер и время изменения берутся уже после закрытия региона,
+     * когда заголовок записан. В режиме {@link #dryRun} кривые чанки остаются в файле, поэтому индекс не обновляется
+     */
+    private void saveState(File file, ScanIndex.RegionState state) {
+        if (scanIndex == null || dryRun) {
+            return;
+        }
+        if (!file.exists()) {
+            scanIndex.delete(file);
+            return;
+        }
+        scanIndex.save(file, new ScanIndex.RegionState(file.length(), file.lastModified(), state.isCompacted(),
+                state.getOffsets(), state.getTimestamps()));
+    }
+
+    /**
+     * Только проверить регион, ничего не меняя в файле, для режима {@code --watch}, пока сервер работает с этим регионом.
+     * Регион открывается только для чтения и без отображения в память, кривые чанки передаются в sink и не удаляются
+     * @param lastState состояние прошлой проверки, чанки, которые с тех пор не менялись, пропускаются. Может быть null
+     * @return состояние региона с размером и временем изменения файла на момент перед открытием
+     */
+    public ScanIndex.RegionState check(File file, ScanIndex.RegionState lastState, ProblemSink sink) {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        RegionContext context = new RegionContext(file, sink);
+        try (RegionFile regionFile = new RegionFile(file, true, false)) {
+            boolean[] wanted = new boolean[RegionFile.SECTOR_INTS];
+            for (int x = 0; x < 32; x++) {
+                for (int z = 0; z < 32; z++) {
+                    wanted[x + z * 32] = lastState == null || !lastState.isUnchanged(regionFile, x, z);
+                }
+            }
+            for (RegionFile.ScannedChunk scanned : regionFile.scanBySector(wanted)) {
+                if (scanned.getPayload() == null) {
+                    sink.report(context.problem(scanned.getX(), scanned.getZ(), ChunkProblem.Reason.READ_ERROR, null));
+                    continue;
+                }
+                this.checkChunk(context, scanned.getPayload());
+            }
+            return new ScanIndex.RegionState(length, lastModified, false,
+                    regionFile.getOffsets().clone(), regionFile.getChunkTimestamps().clone());
+        }
+    }
+
+    /**
+     * Быстрая проверка региона только по заголовкам, без распаковки чанков, см. {@link RegionFile#checkStructure()}
+     * @return количество удаленных чанков
+     */
+    public int fixStructure(File file) {
+        int deleted = 0;
+        int chunkCount = 0;
+
+        try (RegionFile regionFile = new RegionFile(file, dryRun, mapped)) {
+            for (RegionFile.StructureProblem problem : regionFile.checkStructure()) {
+                if (this.deleteChunk(regionFile, this.report(regionFile, problem.getX(), problem.getZ(),
+                        ChunkProblem.Reason.STRUCTURE, problem.getMessage()))) {
+                    deleted++;
+                }
+            }
+
+            deleted += this.clearUnusedSpace(regionFile);
+
+            for (int offset : regionFile.getOffsets()) {
+                if (offset != 0) {
+                    chunkCount++;
+                }
+            }
+        }
+
+        this.deleteIfEmpty(file, chunkCount);
+        return deleted;
+    }
+
+    /**
+     * @return количество чанков, которые пропали из региона при очистке копированием, каждый из них сообщается как проблема
+     */
+    @SneakyThrows
+    private int clearUnusedSpace(RegionFile regionFile) {
+        if (dryRun || !clearUnusedSpace && recompressor == null) {
+            return 0;
+        }
+        Locality before = localityBefore != null ? Locality.measure(regionFile) : null;
+        List<RegionFile.StructureProblem> dropped = Collections.emptyList();
+        if (recompressor != null) {
+            dropped = recompressor.recompress(regionFile);
+        } else if (clearUnusedSpaceByCopy) {
+            dropped = regionFile.clearUnusedSpaceByCopy(null, chunkOrder);
+        } else {
+            regionFile.clearUnusedSpace();
+        }
+        for (RegionFile.StructureProblem problem : dropped) {
+            this.report(regionFile, problem.getX(), problem.getZ(), ChunkProblem.Reason.STRUCTURE, problem.getMessage());
+        }
+        if (before != null) {
+            localityBefore.add(before);
+            localityAfter.add(Locality.measure(regionFile));
+        }
+        return dropped.size();
+    }
+
+    private void deleteIfEmpty(File file, int chunkCount) {
+        if (chunkCount == 0 && deleteEmptyRegions && !dryRun) {
+            System.out.println("Регион " + file.getName() + " не содержит ни одного чанка, удаляем его...");
+            file.delete();
+        }
+    }
+
+    /**
+     * @return true, если чанк удален (в режиме {@link #dryRun} был бы удален), false, если удалить не получилось
+     * и чанк остался в регионе
+     */
+    private boolean deleteChunk(RegionFile regionFile, ChunkProblem problem) {
+        if (dryRun) {
+            return true;
+        }
+        int x = problem.getX();
+        int z = problem.getZ();
+        try {
+            // если чанка уже нет в файле (сектора за концом файла), сохранять нечего, а удалить его все равно нужно
+            if (archive != null) {
+                archive.add(regionFile, problem);
+            }
+            regionFile.deleteChunk(x, z);
+            return true;
+        } catch (Exception e) {
+            this.report(regionFile, x, z, ChunkProblem.Reason.DELETE_ERROR, e.toString());
+            return false;
+        }
+    }
+
+    private void unreserve(long bytes) {
+        if (memoryBudget != null) {
+            memoryBudget.release(bytes);
+        }
+    }
+
+    /**
+     * Распаковать и проверить чанк, не трогая файл региона
+     * @return проблема, из-за которой чанк нужно удалить, либо null
+     */
+    private ChunkProblem checkChunk(RegionContext context, RegionFile.ChunkPayload payload) {
+        int x = payload.getX();
+        int z = payload.getZ();
+        Metrics.addChunk();
+        Map<String, Object> root;
+        try (InputStream inputStream = memoryBudget != null
+                ? memoryBudget.counting(payload.getInputStream(), payload.getData().remaining())
+                : payload.getInputStream()) {
+            Metrics.Timer parse = Metrics.start(Metrics.Phase.PARSE);
+            root = NBTStreamReader.read(inputStream, rules.getProjection());
+            Metrics.stop(parse);
+        } catch (Exception e) {
+            ChunkProblem problem = context.problem(x, z, ChunkProblem.Reason.PARSE_ERROR, e.toString());
+            context.getProblemSink().report(problem);
+            return problem;
+        } finally {
+            payload.release();
+        }
+
+        Metrics.Timer validate = Metrics.start(Metrics.Phase.VALIDATE);
+        ChunkProblem problem = rules.check(context, x, z, root);
+        Metrics.stop(validate);
+        if (problem != null) {
+            context.getProblemSink().report(problem);
+        }
+        return problem;
+    }
+
+    /**
+     * @return сообщенная проблема, чтобы проверка могла сразу вернуть результат
+     */
+    private ChunkProblem report(RegionFile regionFile, int x, int z, ChunkProblem.Reason reason, String details) {
+        ChunkProblem problem = new ChunkProblem(regionFile.getFileName(), x, z, reason, details);
+        problemSink.report(problem);
+        return problem;
+    }
+}
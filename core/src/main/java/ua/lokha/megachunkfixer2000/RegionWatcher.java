@@ -0,0 +1,226 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.SneakyThrows;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Режим {@code --watch}: следит за папками регионов через {@link WatchService} и проверяет регионы, пока сервер работает.
+ * <p>
+ * События об изменении файла копятся, пока файл не перестанет меняться на {@link #debounceMillis}, после чего регион
+ * открывается только для чтения и проверяются только чанки, у которых с прошлой проверки изменились смещение или время
+ * записи в заголовке. Ничего не удаляется, кривые чанки только передаются в {@link ProblemSink}.
+ * <p>
+ * Проверки идут в небольшом пуле. Если все места заняты, поток наблюдения ждет, а новые события копятся в {@link WatchService};
+ * если там очередь переполнится, все регионы в папках считаются измененными.
+ */
+@Getter
+@Setter
+public class RegionWatcher implements Closeable {
+
+    private static final long POLL_MILLIS = 200;
+
+    private final RegionFixer fixer;
+    private final ProblemSink problemSink;
+    private final List<File> dirs;
+
+    /**
+     * Сколько файл не должен меняться, чтобы его можно было проверять
+     */
+    private long debounceMillis = 2000;
+    private int threads = 1;
+
+    private final AtomicLong checkedRegions = new AtomicLong();
+    private final AtomicLong foundProblems = new AtomicLong();
+
+    /**
+     * Состояние регионов на момент последней проверки, только в памяти: кривые чанки в файле остаются,
+     * поэтому в индекс {@code --incremental} их записывать нельзя
+     */
+    private final Map<File, ScanIndex.RegionState> states = new ConcurrentHashMap<>();
+
+    /**
+     * Регионы, которые нужно проверить, и время последнего события по ним
+     */
+    private final Map<File, Long> pending = new ConcurrentHashMap<>();
+    private final Set<File> running = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean closed;
+
+    public RegionWatcher(RegionFixer fixer, ProblemSink problemSink, List<File> dirs) {
+        this.fixer = fixer;
+        this.problemSink = problemSink;
+        this.dirs = dirs;
+    }
+
+    /**
+     * Следить за папками, пока не будет вызван {@link #close()}
+     * @param initial регионы, которые нужно проверить сразу после запуска. Если у {@link RegionFixer} есть индекс
+     *                {@code --incremental}, из них проверяются только чанки, измененные после последнего исправления
+     */
+    public void run(Collection<File> initial) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory("fixer-watch"));
+        Semaphore slots = new Semaphore(threads * 2);
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            for (File dir : dirs) {
+                dir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            }
+            long now = System.currentTimeMillis();
+            for (File file : initial) {
+                pending.put(file.getAbsoluteFile(), now - debounceMillis);
+            }
+
+            while (!closed) {
+                WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    this.handle(key);
+                }
+                this.dispatch(executor, slots);
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            stopped.countDown();
+        }
+    }
+
+    private void handle(WatchKey key) {
+        File dir = ((Path) key.watchable()).toFile().getAbsoluteFile();
+        long now = System.currentTimeMillis();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                for (File watched : dirs) {
+                    File[] files = watched.listFiles((d, name) -> name.endsWith(".mca"));
+                    if (files != null) {
+                        for (File file : files) {
+                            pending.put(file.getAbsoluteFile(), now);
+                        }
+                    }
+                }
+                continue;
+            }
+            String name = event.context().toString();
+            if (!name.endsWith(".mca")) {
+                continue;
+            }
+            File file = new File(dir, name);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                pending.remove(file);
+                states.remove(file);
+            } else {
+                pending.put(file, now);
+            }
+        }
+        key.reset();
+    }
+
+    /**
+     * Отдать в пул регионы, которые перестали меняться. Регион, который еще проверяется, остается в очереди до конца проверки
+     */
+    private void dispatch(ExecutorService executor, Semaphore slots) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<File, Long>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext() && !closed) {
+            Map.Entry<File, Long> entry = iterator.next();
+            File file = entry.getKey();
+            if (now - entry.getValue() < debounceMillis || running.contains(file)) {
+                continue;
+            }
+            slots.acquire();
+            if (!pending.remove(file, entry.getValue())) {
+                // пока ждали место, пришло новое событие, ждем снова
+                slots.release();
+                continue;
+            }
+            running.add(file);
+            executor.execute(() -> {
+                try {
+                    this.check(file);
+                } catch (Exception e) {
+                    System.err.println("Ошибка проверки региона " + file.getName() + "\n" + Utils.toLogStackTrace(e));
+                } finally {
+                    running.remove(file);
+                    slots.release();
+                }
+            });
+        }
+    }
+
+    private void check(File file) {
+        if (!file.exists()) {
+            states.remove(file);
+            return;
+        }
+        ScanIndex.RegionState lastState = states.get(file);
+        if (lastState == null && fixer.getScanIndex() != null) {
+            lastState = fixer.getScanIndex().load(file);
+        }
+        if (lastState != null && lastState.isUnchanged(file)) {
+            return;
+        }
+
+        List<ChunkProblem> problems = new ArrayList<>();
+        ScanIndex.RegionState state = fixer.check(file, lastState, problems::add);
+        if (!problems.isEmpty() && !state.isUnchanged(file)) {
+            // сервер писал в регион во время проверки, чанк мог быть прочитан недописанным, проверим, когда запись закончится
+            pending.put(file, System.currentTimeMillis());
+            return;
+        }
+        states.put(file, state);
+        checkedRegions.incrementAndGet();
+        if (problems.isEmpty()) {
+            return;
+        }
+
+        // ошибки проверки вроде CHECK_ERROR и BAD_SECTION только пишутся в лог, кривыми считаются чанки, которые утилита удалила бы
+        int fatal = 0;
+        Set<String> reasons = new LinkedHashSet<>();
+        for (ChunkProblem problem : problems) {
+            problemSink.report(problem);
+            if (problem.getReason().isFatal()) {
+                fatal++;
+                reasons.add(problem.getReason().name());
+            }
+        }
+        if (fatal == 0) {
+            return;
+        }
+        foundProblems.addAndGet(fatal);
+        System.out.println("В регионе " + file.getName() + " найдено " + fatal + " кривых чанков " +
+                "(" + String.join(", ", reasons) + "), подробности в логе.");
+    }
+
+    /**
+     * Остановить наблюдение и дождаться конца уже начатых проверок
+     */
+    @Override
+    @SneakyThrows
+    public void close() {
+        closed = true;
+        stopped.await();
+    }
+}
@@ -0,0 +1,153 @@
+package ua.lokha.megachunkfixer2000;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Индекс последней проверки для режима {@code --incremental}.
+ * <p>
+ * Для каждого региона хранится маленький файл с размером и временем изменения региона, а также смещением и
+ * временем записи каждого чанка на момент, когда все чанки в нем были проверены. Сервер при записи чанка
+ * обновляет его время в заголовке региона, поэтому при следующем запуске распаковывать и проверять нужно
+ * только чанки, у которых смещение или время изменились, а регионы, которые сервер вообще не трогал, можно не открывать.
+ * <p>
+ * Файлы индекса лежат в отдельной папке и повторяют путь региона относительно папки мира.
+ */
+@Getter
+public class ScanIndex {
+
+    private static final int MAGIC = 0x4D434649; // MCFI
+    private static final int VERSION = 1;
+
+    private final File worldDir;
+    private final File indexDir;
+
+    private final AtomicInteger skippedRegions = new AtomicInteger();
+    private final AtomicLong skippedChunks = new AtomicLong();
+
+    public ScanIndex(File worldDir, File indexDir) {
+        this.worldDir = worldDir.getAbsoluteFile();
+        this.indexDir = indexDir.getAbsoluteFile();
+    }
+
+    /**
+     * @return состояние региона на момент последней проверки, либо null, если регион еще не проверялся
+     * или файл индекса поврежден
+     */
+    public RegionState load(File region) {
+        File file = this.getIndexFile(region);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            RegionState state = new RegionState(in.readLong(), in.readLong(), in.readBoolean(),
+                    new int[RegionFile.SECTOR_INTS], new int[RegionFile.SECTOR_INTS]);
+            for (int i = 0; i < RegionFile.SECTOR_INTS; i++) {
+                state.offsets[i] = in.readInt();
+                state.timestamps[i] = in.readInt();
+            }
+            return state;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Сохранить состояние региона после проверки. Файл индекса подменяется атомарно,
+     * чтобы прерванный запуск не оставил полузаписанный индекс
+     */
+    @SneakyThrows
+    public void save(File region, RegionState state) {
+        File file = this.getIndexFile(region);
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(state.length);
+            out.writeLong(state.lastModified);
+            out.writeBoolean(state.compacted);
+            for (int i = 0; i < RegionFile.SECTOR_INTS; i++) {
+                out.writeInt(state.offsets[i]);
+                out.writeInt(state.timestamps[i]);
+            }
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public void delete(File region) {
+        this.getIndexFile(region).delete();
+    }
+
+    public File getIndexFile(File region) {
+        Path path = region.getAbsoluteFile().toPath();
+        Path relative = path.startsWith(worldDir.toPath()) ? worldDir.toPath().relativize(path) : path.getFileName();
+        return new File(indexDir, relative + ".idx");
+    }
+
+    /**
+     * Снимок региона на момент последней проверки
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class RegionState {
+        private final long length;
+        private final long lastModified;
+
+        /**
+         * Неиспользуемое пространство было очищено, повторно чистить неизмененный регион не нужно
+         */
+        private final boolean compacted;
+        private final int[] offsets;
+        private final int[] timestamps;
+
+        /**
+         * Файл региона не менялся с момента проверки
+         */
+        public boolean isUnchanged(File region) {
+            return region.length() == length && region.lastModified() == lastModified;
+        }
+
+        /**
+         * Чанк лежит там же и записан тогда же, когда был проверен
+         */
+        public boolean isUnchanged(RegionFile regionFile, int x, int z) {
+            int index = x + z * 32;
+            return offsets[index] != 0
+                    && offsets[index] == regionFile.getOffsets()[index]
+                    && timestamps[index] == regionFile.getChunkTimestamps()[index];
+        }
+
+        public boolean hasChunks() {
+            for (int offset : offsets) {
+                if (offset != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package ua.lokha.megachunkfixer2000;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Карта свободных секторов файла региона.
+ * <p>
+ * Свободные сектора хранятся битами в {@link BitSet}, а непрерывные свободные участки дополнительно
+ * проиндексированы по длине, поэтому {@link #allocate(int)} не сканирует файл, а сразу берет
+ * самый короткий подходящий участок (best-fit), из одинаковых - ближайший к началу файла.
+ */
+public class SectorAllocator {
+
+    /**
+     * Участки длиннее лежат в одной общей корзине. Чанк не может занимать больше 255 секторов,
+     * так что для обычной записи чанков поиск по корзинам всегда ограничен этим числом
+     */
+    private static final int MAX_BUCKET = 256;
+
+    private final BitSet free = new BitSet();
+    private int size;
+
+    /**
+     * Свободные участки: начало -> длина
+     */
+    private final TreeMap<Integer, Integer> runs = new TreeMap<>();
+
+    /**
+     * Начала свободных участков, разложенные по длине участка
+     */
+    private final TreeSet<Integer>[] buckets;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SectorAllocator(int size) {
+        this.size = size;
+        buckets = new TreeSet[MAX_BUCKET + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new TreeSet<>();
+        }
+        if (size > 0) {
+            free.set(0, size);
+            this.addRun(0, size);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFree(int sector) {
+        return free.get(sector);
+    }
+
+    /**
+     * Найти и занять {@code count} свободных секторов подряд
+     * @return номер первого сектора, либо -1, если такого участка нет и файл нужно увеличить через {@link #grow(int)}
+     */
+    public int allocate(int count) {
+        for (int length = Math.min(count, MAX_BUCKET); length <= MAX_BUCKET; length++) {
+            for (Integer start : buckets[length]) {
+                int runLength = runs.get(start);
+                if (runLength < count) {
+                    continue; // бывает только в общей корзине длинных участков
+                }
+                this.removeRun(start, runLength);
+                if (runLength > count) {
+                    this.addRun(start + count, runLength - count);
+                }
+                free.clear(start, start + count);
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Освободить сектора, соседние свободные участки склеиваются
+     */
+    public void free(int start, int count) {
+        int end = Math.min(start + count, size);
+        start = Math.max(start, 0);
+        if (start >= end) {
+            return;
+        }
+        free.set(start, end);
+
+        Map.Entry<Integer, Integer> prev = runs.floorEntry(start);
+        if (prev != null && prev.getKey() + prev.getValue() >= start) {
+            this.removeRun(prev.getKey(), prev.getValue());
+            end = Math.max(end, prev.getKey() + prev.getValue());
+            start = prev.getKey();
+        }
+        Map.Entry<Integer, Integer> next;
+        while ((next = runs.ceilingEntry(start)) != null && next.getKey() <= end) {
+            this.removeRun(next.getKey(), next.getValue());
+            end = Math.max(end, next.getKey() + next.getValue());
+        }
+        this.addRun(start, end - start);
+    }
+
+    /**
+     * Пометить сектора занятыми, например при загрузке таблицы смещений.
+     * Уже занятые сектора и сектора за концом файла пропускаются
+     */
+    public void markUsed(int start, int count) {
+        int end = Math.min(start + count, size);
+        start = Math.max(start, 0);
+        if (start >= end) {
+            return;
+        }
+        free.clear(start, end);
+
+        Map.Entry<Integer, Integer> run = runs.floorEntry(start);
+        if (run == null || run.getKey() + run.getValue() <= start) {
+            run = runs.ceilingEntry(start);
+        }
+        while (run != null && run.getKey() < end) {
+            int runStart = run.getKey();
+            int runEnd = runStart + run.getValue();
+            this.removeRun(runStart, run.getValue());
+            if (runStart < start) {
+                this.addRun(runStart, start - runStart);
+            }
+            if (runEnd > end) {
+                this.addRun(end, runEnd - end);
+            }
+            run = runs.ceilingEntry(runEnd);
+        }
+    }
+
+    /**
+     * Добавить в конец файла {@code count} занятых секторов
+     * @return номер первого добавленного сектора
+     */
+    public int grow(int count) {
+        int start = size;
+        size += count;
+        return start;
+    }
+
+    /**
+     * @return копия битовой карты, установленный бит - свободный сектор
+     */
+    public BitSet getFreeSectors() {
+        return (BitSet) free.clone();
+    }
+
+    private void addRun(int start, int length) {
+        runs.put(start, length);
+        buckets[Math.min(length, MAX_BUCKET)].add(start);
+    }
+
+    private void removeRun(int start, int length) {
+        runs.remove(start);
+        buckets[Math.min(length, MAX_BUCKET)].remove(start);
+    }
+}
@@ -0,0 +1,159 @@
+package ua.lokha.megachunkfixer2000;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class Utils {
+
+    public static String toLogLength(long bytes) {
+        if (bytes >= 1_000_000) {
+            return (bytes / 1_000_000) + "MB";
+        }
+        if (bytes >= 1_000) {
+            return (bytes / 1_000) + "KB";
+        }
+        return bytes + "B";
+    }
+
+    /**
+     * Разобрать размер вида {@code 512M}, {@code 3G}, {@code 800K} или число байт
+     */
+    public static long parseLength(String value) {
+        String number = value.trim().toUpperCase();
+        long multiplier = 1;
+        if (number.endsWith("B")) {
+            number = number.substring(0, number.length() - 1);
+        }
+        if (number.endsWith("K")) {
+            multiplier = 1024;
+        } else if (number.endsWith("M")) {
+            multiplier = 1024 * 1024;
+        } else if (number.endsWith("G")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if (multiplier != 1) {
+            number = number.substring(0, number.length() - 1);
+        }
+        try {
+            return Long.parseLong(number) * multiplier;
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Неправильный размер " + value + ", нужно число байт или, например, 512M или 3G.");
+        }
+    }
+
+    public static String toLogPercent(long low, long high) {
+        return String.format("%.2f", 100 - ((double)low / high) * 100);
+    }
+
+    /**
+     * Строка в кавычках для JSON, null превращается в {@code null}
+     */
+    public static String toJsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Стектрейс одной строкой, чтобы при выводе из нескольких потоков он не перемешивался с другими сообщениями
+     */
+    public static String toLogStackTrace(Throwable throwable) {
+        StringWriter writer = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    /**
+     * Освободить отображение файла в память сразу, не дожидаясь GC.
+     * Без этого на Windows файл нельзя обрезать или удалить, пока буфер не соберет GC.
+     * После вызова обращаться к буферу (и его кускам) нельзя, это уронит JVM.
+     * Если освободить не получилось (незнакомая JVM), буфер просто останется на совести GC.
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            // java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            // java 8
+            Try.ignore(() -> {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Скопировать кусок одного файла в другой без буферов в куче ({@link FileChannel#transferTo}),
+     * позиция {@code in} не меняется
+     */
+    public static void transferFully(FileChannel in, long position, long count, FileChannel out, long outPosition) throws IOException {
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out.position(outPosition));
+            if (transferred <= 0) {
+                throw new EOFException("Не удалось скопировать " + count + " байт с позиции " + position);
+            }
+            position += transferred;
+            outPosition += transferred;
+            count -= transferred;
+        }
+    }
+
+    /**
+     * Записать на диск ({@code fsync}) сам каталог, чтобы переименование файла в нем пережило сбой питания.
+     * Не везде каталог можно открыть как файл (например, на Windows), там ничего не делается
+     */
+    public static void fsyncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Прочитать из канала по позиции, пока буфер не заполнится. Позиция канала не меняется,
+     * поэтому так можно читать один файл из нескольких потоков сразу
+     */
+    public static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Не удалось прочитать " + buffer.remaining() + " байт с позиции " + position);
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ua.lokha.megachunkfixer2000.generator;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Виды повреждений, которые {@link WorldGenerator} умеет вносить в чанки
+ */
+@Getter
+@AllArgsConstructor
+public enum Corruption {
+    WRONG_POS("xPos/zPos не совпадают с положением чанка в регионе", false),
+    MISSING_BLOCKS("в секции нет массива Blocks", false),
+    MISSING_DATA("в секции нет массива Data", false),
+    MISSING_SKYLIGHT("в секции нет массива SkyLight", false),
+    SHORT_BLOCKS("массив Blocks короче 4096", false),
+    SHORT_DATA("массив Data короче 2048", false),
+    SHORT_SKYLIGHT("массив SkyLight короче 2048", false),
+    TRUNCATED_STREAM("сжатые данные обрезаны, длина в заголовке чанка уменьшена", true),
+    OVERLAPPING_SECTORS("смещение чанка указывает на сектора другого чанка", true),
+    BAD_VERSION("неизвестная версия сжатия в заголовке чанка", true),
+    ;
+
+    private final String description;
+
+    /**
+     * Повреждение вносится в файл региона после записи, а не в NBT чанка
+     */
+    private final boolean raw;
+}
@@ -0,0 +1,370 @@
+package ua.lokha.megachunkfixer2000.generator;
+
+import lombok.Getter;
+import lombok.Setter;
+import ua.lokha.megachunkfixer2000.NBTStreamWriter;
+import ua.lokha.megachunkfixer2000.ParseArgs;
+import ua.lokha.megachunkfixer2000.RegionFile;
+import ua.lokha.megachunkfixer2000.Utils;
+import ua.lokha.megachunkfixer2000.WorkerThreadFactory;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Генератор искусственного мира для нагрузочных тестов и бенчмарков.
+ * <p>
+ * Из одного и того же seed всегда получаются одинаковые регионы (время изменения чанков в заголовке не в счет).
+ * Каждый регион генерируется независимо, поэтому регионы пишутся параллельно, а чанки сразу сжимаются
+ * в файл через {@link RegionFile#getChunkDataOutputStream(int, int)}, весь мир в памяти не держится.
+ * <p>
+ * Запуск из консоли:
+ * {@code java -cp mega-chunk-fixer-2000.jar ua.lokha.megachunkfixer2000.generator.WorldGenerator ПАПКА_МИРА
+ * --regions=100 --seed=1 --fragmentation=0.3 --corruption=wrong_pos:0.01,bad_version:0.001 --threads=8 --level=1}
+ */
+@Getter
+@Setter
+public class WorldGenerator {
+
+    private long seed;
+
+    /**
+     * Количество регионов, они раскладываются квадратом вокруг региона 0,0
+     */
+    private int regions = 1;
+
+    /**
+     * Доля чанков (0..1), которые после записи перезаписываются чанком большего размера.
+     * Старые сектора освобождаются, и в файле остаются дыры, как после работы сервера
+     */
+    private double fragmentation;
+
+    /**
+     * Вероятность каждого повреждения для каждого чанка, на чанк приходится не больше одного повреждения
+     */
+    private Map<Corruption, Double> corruption = new EnumMap<>(Corruption.class);
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Уровень сжатия чанков, по умолчанию самый быстрый: почти все время генерации уходит на deflate
+     */
+    private int level = Deflater.BEST_SPEED;
+
+    /**
+     * Сгенерировать {@link #regions} регионов в папку
+     */
+    public Stats generate(File regionDir) throws Exception {
+        regionDir.mkdirs();
+        Stats stats = new Stats();
+        int side = (int) Math.ceil(Math.sqrt(regions));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory("generator"));
+        try {
+            List<Future<?>> futures = new ArrayList<>(regions);
+            for (int i = 0; i < regions; i++) {
+                int regionX = i % side - side / 2;
+                int regionZ = i / side - side / 2;
+                File file = new File(regionDir, "r." + regionX + "." + regionZ + ".mca");
+                futures.add(executor.submit(() -> {
+                    this.generateRegion(file, regionX, regionZ, stats);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        return stats;
+    }
+
+    /**
+     * Сгенерировать один регион со всеми 1024 чанками, существующий файл перезаписывается
+     */
+    public void generateRegion(File file, int regionX, int regionZ, Stats stats) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Не удалось удалить " + file);
+        }
+        Random random = new Random(seed * 31 + ((long) regionX << 32 ^ regionZ & 0xFFFFFFFFL));
+        Corruption[] corruptions = new Corruption[1024];
+
+        try (RegionFile regionFile = new RegionFile(file)) {
+            for (int x = 0; x < 32; x++) {
+                for (int z = 0; z < 32; z++) {
+                    Corruption corruption = this.pickCorruption(random);
+                    corruptions[x + z * 32] = corruption;
+                    Map<String, Object> chunk = chunk(random, (regionX << 5) + x, (regionZ << 5) + z);
+                    if (corruption != null && !corruption.isRaw()) {
+                        corrupt(chunk, corruption, random);
+                    }
+                    this.writeChunk(regionFile, x, z, chunk);
+                }
+            }
+
+            for (int i = 0; i < 1024 * fragmentation; i++) {
+                int x = random.nextInt(32);
+                int z = random.nextInt(32);
+                if (corruptions[x + z * 32] != null) {
+                    continue; // перезапись исправила бы повреждение
+                }
+                Map<String, Object> chunk = chunk(random, (regionX << 5) + x, (regionZ << 5) + z);
+                // шум почти не сжимается, чанк гарантированно займет больше секторов
+                level(chunk).put("Noise", bytes(random, 4096 + random.nextInt(8192), 256, 1));
+                this.writeChunk(regionFile, x, z, chunk);
+            }
+
+            for (int i = 0; i < corruptions.length; i++) {
+                Corruption corruption = corruptions[i];
+                if (corruption != null) {
+                    if (corruption.isRaw()) {
+                        corruptRaw(regionFile, i % 32, i / 32, corruption, random);
+                    }
+                    stats.add(corruption);
+                }
+            }
+        }
+        stats.chunks.addAndGet(1024);
+        stats.bytes.addAndGet(file.length());
+    }
+
+    private Corruption pickCorruption(Random random) {
+        double roll = random.nextDouble();
+        for (Map.Entry<Corruption, Double> entry : corruption.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Чанк, похожий на настоящий чанк 1.12: секции до поверхности земли, карта высот, биомы, сущности и тайлы
+     * @param chunkX абсолютная координата чанка
+     * @param chunkZ абсолютная координата чанка
+     */
+    public static Map<String, Object> chunk(Random random, int chunkX, int chunkZ) {
+        Map<String, Object> level = new HashMap<>();
+        level.put("xPos", chunkX);
+        level.put("zPos", chunkZ);
+        level.put("LastUpdate", (long) random.nextInt(1_000_000));
+        level.put("InhabitedTime", (long) random.nextInt(100_000));
+        level.put("TerrainPopulated", (byte) 1);
+        level.put("LightPopulated", (byte) 1);
+        level.put("Biomes", bytes(random, 256, 4, 16));
+        int[] heightMap = new int[256];
+        for (int i = 0; i < heightMap.length; i++) {
+            heightMap[i] = 60 + random.nextInt(8);
+        }
+        level.put("HeightMap", heightMap);
+
+        List<Object> sections = new ArrayList<>();
+        for (int y = 0, count = 4 + random.nextInt(5); y < count; y++) {
+            // в нижних секциях руды и пещеры, выше почти однородная земля и воздух
+            int runs = y < 2 ? 16 : 256;
+            Map<String, Object> section = new HashMap<>();
+            section.put("Y", (byte) y);
+            section.put("Blocks", bytes(random, 4096, 8, runs));
+            section.put("Data", bytes(random, 2048, 2, runs));
+            section.put("SkyLight", bytes(random, 2048, 2, runs));
+            section.put("BlockLight", bytes(random, 2048, 2, runs));
+            sections.add(section);
+        }
+        level.put("Sections", sections);
+
+        List<Object> entities = new ArrayList<>();
+        for (int i = random.nextInt(8); i > 0; i--) {
+            Map<String, Object> entity = new HashMap<>();
+            entity.put("id", "minecraft:zombie");
+            entity.put("Health", random.nextFloat() * 20);
+            List<Object> pos = new ArrayList<>();
+            pos.add(chunkX * 16 + random.nextDouble() * 16);
+            pos.add(random.nextDouble() * 256);
+            pos.add(chunkZ * 16 + random.nextDouble() * 16);
+            entity.put("Pos", pos);
+            entities.add(entity);
+        }
+        level.put("Entities", entities);
+
+        List<Object> tileEntities = new ArrayList<>();
+        for (int i = random.nextInt(4); i > 0; i--) {
+            Map<String, Object> tile = new HashMap<>();
+            tile.put("id", "minecraft:chest");
+            tile.put("x", chunkX * 16 + random.nextInt(16));
+            tile.put("y", random.nextInt(256));
+            tile.put("z", chunkZ * 16 + random.nextInt(16));
+            tile.put("Items", new ArrayList<>());
+            tileEntities.add(tile);
+        }
+        level.put("TileEntities", tileEntities);
+
+        Map<String, Object> root = new HashMap<>();
+        root.put("Level", level);
+        root.put("DataVersion", 1343);
+        return root;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> level(Map<String, Object> chunk) {
+        return (Map<String, Object>) chunk.get("Level");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void corrupt(Map<String, Object> chunk, Corruption corruption, Random random) {
+        Map<String, Object> level = level(chunk);
+        List<Object> sections = (List<Object>) level.get("Sections");
+        Map<String, Object> section = (Map<String, Object>) sections.get(random.nextInt(sections.size()));
+        switch (corruption) {
+            case WRONG_POS:
+                level.put("xPos", (Integer) level.get("xPos") + 1 + random.nextInt(100));
+                break;
+            case MISSING_BLOCKS:
+                section.remove("Blocks");
+                break;
+            case MISSING_DATA:
+                section.remove("Data");
+                break;
+            case MISSING_SKYLIGHT:
+                section.remove("SkyLight");
+                break;
+            case SHORT_BLOCKS:
+                section.put("Blocks", new byte[random.nextInt(4096)]);
+                break;
+            case SHORT_DATA:
+                section.put("Data", new byte[random.nextInt(2048)]);
+                break;
+            case SHORT_SKYLIGHT:
+                section.put("SkyLight", new byte[random.nextInt(2048)]);
+                break;
+            default:
+                throw new IllegalArgumentException("Повреждение " + corruption + " вносится в файл, а не в NBT");
+        }
+    }
+
+    private static void corruptRaw(RegionFile regionFile, int x, int z, Corruption corruption, Random random) throws IOException {
+        RandomAccessFile file = regionFile.getFile();
+        long pos = (long) (regionFile.getOffset(x, z) >> 8) * RegionFile.SECTOR_BYTES;
+        switch (corruption) {
+            case TRUNCATED_STREAM:
+                file.seek(pos);
+                int length = file.readInt();
+                file.seek(pos);
+                file.writeInt(1 + random.nextInt(length / 2));
+                break;
+            case OVERLAPPING_SECTORS:
+                int other = random.nextInt(1024);
+                if (other == x + z * 32) {
+                    other = (other + 1) % 1024;
+                }
+                regionFile.setOffset(x, z, regionFile.getOffset(other % 32, other / 32));
+                break;
+            case BAD_VERSION:
+                file.seek(pos + 4);
+                file.writeByte(3 + random.nextInt(100));
+                break;
+            default:
+                throw new IllegalArgumentException("Повреждение " + corruption + " вносится в NBT, а не в файл");
+        }
+    }
+
+    private void writeChunk(RegionFile regionFile, int x, int z, Map<String, Object> chunk) throws IOException {
+        try (DataOutputStream out = regionFile.getChunkDataOutputStream(x, z, level)) {
+            NBTStreamWriter.write(out, chunk, false);
+        }
+    }
+
+    /**
+     * Массив из небольшого количества разных значений, идущих отрезками, сжимается примерно как настоящие данные блоков
+     * @param runs максимальная длина отрезка из одинаковых значений
+     */
+    private static byte[] bytes(Random random, int length, int values, int runs) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ) {
+            byte value = (byte) random.nextInt(values);
+            int end = Math.min(length, i + 1 + random.nextInt(runs));
+            while (i < end) {
+                bytes[i++] = value;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Сколько всего сгенерировано, сколько чанков повреждено и как
+     */
+    @Getter
+    public static class Stats {
+        private final AtomicLong chunks = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final Map<Corruption, AtomicLong> corruptions = new EnumMap<>(Corruption.class);
+
+        public Stats() {
+            for (Corruption corruption : Corruption.values()) {
+                corruptions.put(corruption, new AtomicLong());
+            }
+        }
+
+        private void add(Corruption corruption) {
+            corruptions.get(corruption).incrementAndGet();
+        }
+
+        public long getCorrupted() {
+            return corruptions.values().stream().mapToLong(AtomicLong::get).sum();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                new File(arg).mkdirs();
+            }
+        }
+        ParseArgs parseArgs = ParseArgs.parse(args);
+
+        WorldGenerator generator = new WorldGenerator();
+        generator.setRegions(parseArgs.getIntFlag("--regions", 1));
+        generator.setThreads(parseArgs.getIntFlag("--threads", generator.getThreads()));
+        generator.setLevel(parseArgs.getIntFlag("--level", generator.getLevel()));
+        String seed = parseArgs.getFlagValue("--seed");
+        generator.setSeed(seed != null ? Long.parseLong(seed) : 0);
+        String fragmentation = parseArgs.getFlagValue("--fragmentation");
+        generator.setFragmentation(fragmentation != null ? Double.parseDouble(fragmentation) : 0);
+        String corruption = parseArgs.getFlagValue("--corruption");
+        if (corruption != null) {
+            for (String entry : corruption.split(",")) {
+                String[] parts = entry.split(":");
+                generator.getCorruption().put(Corruption.valueOf(parts[0].toUpperCase()), Double.parseDouble(parts[1]));
+            }
+        }
+
+        File regionDir = new File(parseArgs.getDir(), "region");
+        System.out.println("Генерируем " + generator.getRegions() + " регионов в папку " + regionDir + "...");
+        long start = System.currentTimeMillis();
+        Stats stats = generator.generate(regionDir);
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println("Сгенерировано " + stats.getChunks() + " чанков, " + Utils.toLogLength(stats.getBytes().get()) + " " +
+                "за " + time / 1000 + " сек (" + Utils.toLogLength(stats.getBytes().get() * 1000 / time) + "/сек), " +
+                "повреждено " + stats.getCorrupted() + " чанков:");
+        stats.getCorruptions().forEach((type, count) -> {
+            if (count.get() > 0) {
+                System.out.println("  " + type + " (" + type.getDescription() + "): " + count.get());
+            }
+        });
+    }
+}
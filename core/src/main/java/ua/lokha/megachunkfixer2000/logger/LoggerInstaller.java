@@ -25,7 +25,7 @@ public class LoggerInstaller {
 		fileHandler.setLevel(Level.ALL);
 		logger.addHandler(fileHandler);
 		ConsoleHandler consoleHandler = new ConsoleHandler();
-		consoleHandler.setLevel(Level.ALL);
+		consoleHandler.setLevel(Level.INFO); // подробности (Level.FINE) пишутся только в файл
 		consoleHandler.setFormatter(new FormatterTime());
 		logger.addHandler(consoleHandler);
 
@@ -0,0 +1,45 @@
+package ua.lokha.megachunkfixer2000.rule;
+
+import ua.lokha.megachunkfixer2000.ChunkProblem;
+import ua.lokha.megachunkfixer2000.NBTProjection;
+
+import java.util.Map;
+
+/**
+ * Правило проверки чанка.
+ * <p>
+ * Правила находятся через {@link java.util.ServiceLoader}: чтобы добавить свою проверку, достаточно положить
+ * в classpath jar с реализацией этого интерфейса и файлом
+ * {@code META-INF/services/ua.lokha.megachunkfixer2000.rule.ChunkRule}, в котором указан класс правила.
+ * <p>
+ * Правило не должно бросать исключения на кривых данных: все значения в NBT могут отсутствовать или иметь не тот тип.
+ * Один экземпляр правила используется из нескольких потоков одновременно.
+ */
+public interface ChunkRule {
+
+    /**
+     * Короткое имя для флага {@code --rules}, например {@code pos}
+     */
+    String getName();
+
+    /**
+     * Добавить в проекцию теги, которые нужны правилу, остальные теги при чтении чанка пропускаются
+     */
+    void declare(NBTProjection projection);
+
+    /**
+     * Проверять ли этим правилом чанки из регионов такого вида. По умолчанию только регионы с блоками:
+     * в {@code entities} и {@code poi} другая структура NBT, и правила для блоков посчитали бы все их чанки кривыми
+     */
+    default boolean supports(RegionContext.Kind kind) {
+        return kind == RegionContext.Kind.REGION;
+    }
+
+    /**
+     * @param root    корень NBT чанка, в котором есть как минимум теги из {@link #declare(NBTProjection)}
+     * @param context данные региона, посчитанные один раз на регион
+     * @return проблема, из-за которой чанк нужно удалить, либо null, если с чанком все в порядке.
+     * Проблемы, из-за которых чанк удалять не нужно, можно сообщить в {@link RegionContext#getProblemSink()}
+     */
+    ChunkProblem check(RegionContext context, int x, int z, Map<String, Object> root);
+}
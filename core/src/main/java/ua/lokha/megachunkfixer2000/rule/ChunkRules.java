@@ -0,0 +1,86 @@
+package ua.lokha.megachunkfixer2000.rule;
+
+import lombok.Getter;
+import ua.lokha.megachunkfixer2000.ChunkProblem;
+import ua.lokha.megachunkfixer2000.NBTProjection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Набор включенных правил проверки чанка и общая проекция NBT, в которой есть теги для всех этих правил
+ */
+@Getter
+public class ChunkRules {
+
+    private final List<ChunkRule> rules;
+    private final NBTProjection projection = new NBTProjection();
+
+    public ChunkRules(List<ChunkRule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        for (ChunkRule rule : rules) {
+            rule.declare(projection);
+        }
+    }
+
+    /**
+     * Все правила, которые есть в classpath, по имени
+     */
+    public static Map<String, ChunkRule> available() {
+        Map<String, ChunkRule> rules = new LinkedHashMap<>();
+        for (ChunkRule rule : ServiceLoader.load(ChunkRule.class, ChunkRule.class.getClassLoader())) {
+            rules.put(rule.getName(), rule);
+        }
+        return rules;
+    }
+
+    /**
+     * @param names имена правил в нужном порядке, либо null, чтобы включить все доступные правила
+     */
+    public static ChunkRules load(Collection<String> names) {
+        Map<String, ChunkRule> available = available();
+        if (names == null) {
+            return new ChunkRules(new ArrayList<>(available.values()));
+        }
+        List<ChunkRule> rules = new ArrayList<>(names.size());
+        for (String name : names) {
+            ChunkRule rule = available.get(name);
+            if (rule == null) {
+                throw new RuntimeException("Неизвестное правило проверки " + name + ", доступны: " + String.join(",", available.keySet()) + ".");
+            }
+            rules.add(rule);
+        }
+        return new ChunkRules(rules);
+    }
+
+    /**
+     * Проверить чанк по очереди всеми правилами, которые поддерживают вид региона, до первой найденной проблемы.
+     * Чанки, для которых подходящих правил нет, проверяются только на то, что NBT читается
+     * @return проблема, из-за которой чанк нужно удалить, либо null
+     */
+    public ChunkProblem check(RegionContext context, int x, int z, Map<String, Object> root) {
+        for (ChunkRule rule : rules) {
+            if (!rule.supports(context.getKind())) {
+                continue;
+            }
+            ChunkProblem problem = rule.check(context, x, z, root);
+            if (problem != null) {
+                return problem;
+            }
+        }
+        return null;
+    }
+
+    public List<String> getNames() {
+        List<String> names = new ArrayList<>(rules.size());
+        for (ChunkRule rule : rules) {
+            names.add(rule.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,50 @@
+package ua.lokha.megachunkfixer2000.rule;
+
+import ua.lokha.megachunkfixer2000.ChunkProblem;
+import ua.lokha.megachunkfixer2000.NBTProjection;
+
+import java.util.Map;
+
+/**
+ * Координаты xPos/zPos внутри чанка должны совпадать с его положением в регионе.
+ * <p>
+ * До 1.18 координаты лежат в компаунде Level, с 1.18 в корне чанка. Если в чанке есть Level, а координат в нем нет,
+ * чанк испорчен. Если же нет ни Level, ни координат в корне, это чанк другого формата, сверять не с чем, и он не трогается.
+ */
+public class PosRule implements ChunkRule {
+
+    @Override
+    public String getName() {
+        return "pos";
+    }
+
+    @Override
+    public void declare(NBTProjection projection) {
+        projection.value("Level.xPos").value("Level.zPos").value("xPos").value("zPos");
+    }
+
+    @Override
+    public ChunkProblem check(RegionContext context, int x, int z, Map<String, Object> root) {
+        if (!context.hasCoordinates()) {
+            return null; // регион назван не по правилам, сверять не с чем
+        }
+        Object level = root.get("Level");
+        Map<?, ?> pos = level instanceof Map ? (Map<?, ?>) level : root;
+        if (pos == root && !root.containsKey("xPos") && !root.containsKey("zPos")) {
+            return null; // чанк другого формата, координаты не с чем сравнивать
+        }
+        Object xPos = pos.get("xPos");
+        Object zPos = pos.get("zPos");
+        int realX = context.getChunkX(x);
+        int realZ = context.getChunkZ(z);
+
+        if (!(xPos instanceof Number)
+                || ((Number) xPos).intValue() != realX
+                || !(zPos instanceof Number)
+                || ((Number) zPos).intValue() != realZ) {
+            return context.problem(x, z, ChunkProblem.Reason.WRONG_POS,
+                    "в чанке " + xPos + "," + zPos + ", а нужно " + realX + "," + realZ);
+        }
+        return null;
+    }
+}
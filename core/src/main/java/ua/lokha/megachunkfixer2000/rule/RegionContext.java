@@ -0,0 +1,103 @@
+package ua.lokha.megachunkfixer2000.rule;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import ua.lokha.megachunkfixer2000.ChunkProblem;
+import ua.lokha.megachunkfixer2000.ProblemSink;
+
+import java.io.File;
+
+/**
+ * Данные региона, которые нужны правилам, считаются один раз на регион, а не для каждого из 1024 чанков
+ */
+@Getter
+public class RegionContext {
+
+    private final File file;
+    private final String fileName;
+
+    /**
+     * Координаты региона из имени файла {@code r.X.Z.mca}
+     */
+    private final int regionX;
+    private final int regionZ;
+
+    @Getter(AccessLevel.NONE)
+    private final boolean hasCoordinates;
+
+    /**
+     * Что лежит в чанках региона, определяется по папке, в которой лежит файл
+     */
+    private final Kind kind;
+
+    private final ProblemSink problemSink;
+
+    public RegionContext(File file, ProblemSink problemSink) {
+        this.file = file;
+        this.fileName = file.getName();
+        this.kind = Kind.of(file);
+        this.problemSink = problemSink;
+
+        String[] parts = fileName.split("\\.");
+        Integer regionX = parts.length == 4 ? parseInt(parts[1]) : null;
+        Integer regionZ = parts.length == 4 ? parseInt(parts[2]) : null;
+        this.hasCoordinates = regionX != null && regionZ != null;
+        this.regionX = hasCoordinates ? regionX : 0;
+        this.regionZ = hasCoordinates ? regionZ : 0;
+    }
+
+    /**
+     * Удалось ли разобрать координаты из имени файла
+     */
+    public boolean hasCoordinates() {
+        return hasCoordinates;
+    }
+
+    /**
+     * Абсолютная координата чанка по X
+     */
+    public int getChunkX(int x) {
+        return (regionX << 5) + x;
+    }
+
+    /**
+     * Абсолютная координата чанка по Z
+     */
+    public int getChunkZ(int z) {
+        return (regionZ << 5) + z;
+    }
+
+    public ChunkProblem problem(int x, int z, ChunkProblem.Reason reason, String details) {
+        return new ChunkProblem(fileName, x, z, reason, details);
+    }
+
+    public enum Kind {
+        /** блоки, {@code region} */
+        REGION,
+        /** сущности отдельно от блоков в 1.17+, {@code entities} */
+        ENTITIES,
+        /** точки интереса жителей в 1.14+, {@code poi} */
+        POI,
+        ;
+
+        public static Kind of(File file) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            String name = parent != null ? parent.getName() : "";
+            if (name.equals("entities")) {
+                return ENTITIES;
+            }
+            if (name.equals("poi")) {
+                return POI;
+            }
+            return REGION;
+        }
+    }
+
+    private static Integer parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
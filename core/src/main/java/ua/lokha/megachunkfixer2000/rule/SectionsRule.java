@@ -0,0 +1,163 @@
+package ua.lokha.megachunkfixer2000.rule;
+
+import ua.lokha.megachunkfixer2000.ChunkProblem;
+import ua.lokha.megachunkfixer2000.NBTProjection;
+import ua.lokha.megachunkfixer2000.NBTProjection.ArrayLength;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * В каждой секции чанка должны быть массивы блоков и света правильной длины.
+ * <p>
+ * В чанках 1.13+ (DataVersion от {@value #FLATTENING_DATA_VERSION}) вместо Blocks и Data лежат Palette и BlockStates,
+ * а секции только со светом и массивы света могут отсутствовать, поэтому для них проверяется только длина имеющихся массивов.
+ * <p>
+ * Если массив лежит тегом другого типа, секция не проверяется, а чанк не удаляется, как и раньше, когда такая секция
+ * падала с ошибкой при проверке. Это сообщается как {@link ChunkProblem.Reason#BAD_SECTION}.
+ */
+public class SectionsRule implements ChunkRule {
+
+    /**
+     * Версия данных 17w47a, первого снапшота с новым форматом секций
+     */
+    public static final int FLATTENING_DATA_VERSION = 1451;
+
+    /**
+     * При 4 битах на блок (минимум) 4096 блоков занимают 256 long
+     */
+    private static final int MIN_BLOCK_STATES_LENGTH = 256;
+
+    private static final int ABSENT = -1;
+    private static final int WRONG_TYPE = -2;
+
+    private static final String[] BYTE_ARRAYS = {"Blocks", "Data", "SkyLight", "BlockLight", "Add"};
+
+    @Override
+    public String getName() {
+        return "sections";
+    }
+
+    @Override
+    public void declare(NBTProjection projection) {
+        projection.value("DataVersion")
+                .value("Level.Sections[*].Y")
+                .length("Level.Sections[*].BlockStates")
+                .length("Level.Sections[*].Blocks")
+                .length("Level.Sections[*].Data")
+                .length("Level.Sections[*].SkyLight")
+                .length("Level.Sections[*].BlockLight")
+                .length("Level.Sections[*].Add");
+    }
+
+    @Override
+    public ChunkProblem check(RegionContext context, int x, int z, Map<String, Object> root) {
+        Object level = root.get("Level");
+        Object sections = level instanceof Map ? ((Map<?, ?>) level).get("Sections") : null;
+        if (!(sections instanceof List)) {
+            return null; // чанк 1.18+, сущностей или точек интереса, секций в Level у него нет, и это не ошибка
+        }
+
+        Object dataVersion = root.get("DataVersion");
+        boolean flattened = dataVersion instanceof Integer && (Integer) dataVersion >= FLATTENING_DATA_VERSION;
+
+        for (Object element : (List<?>) sections) {
+            if (!(element instanceof Map)) {
+                context.getProblemSink().report(context.problem(x, z, ChunkProblem.Reason.BAD_SECTION, String.valueOf(element)));
+                continue;
+            }
+            Map<?, ?> section = (Map<?, ?>) element;
+            Object y = section.get("Y");
+            String wrongType = wrongType(section);
+            if (wrongType != null) {
+                context.getProblemSink().report(context.problem(x, z, ChunkProblem.Reason.BAD_SECTION,
+                        "y=" + y + " массив " + wrongType + " не того типа"));
+                continue;
+            }
+            int blocks = arrayLength(section.get("Blocks"), ArrayLength.BYTE_ARRAY);
+            int skyLights = arrayLength(section.get("SkyLight"), ArrayLength.BYTE_ARRAY);
+            int blockLights = arrayLength(section.get("BlockLight"), ArrayLength.BYTE_ARRAY);
+            int data = arrayLength(section.get("Data"), ArrayLength.BYTE_ARRAY);
+            int add = arrayLength(section.get("Add"), ArrayLength.BYTE_ARRAY);
+
+            if (flattened) {
+                ChunkProblem problem = checkFlattened(context, x, z, section, y, skyLights, blockLights);
+                if (problem != null) {
+                    return problem;
+                }
+                continue;
+            }
+
+            if (blocks == ABSENT) {
+                return context.problem(x, z, ChunkProblem.Reason.MISSING_BLOCKS, "y=" + y);
+            } else if (data == ABSENT) {
+                return context.problem(x, z, ChunkProblem.Reason.MISSING_DATA, "y=" + y);
+            } else if (skyLights == ABSENT) {
+                return context.problem(x, z, ChunkProblem.Reason.MISSING_SKYLIGHT, "y=" + y);
+            } else if (blockLights == ABSENT) {
+                return context.problem(x, z, ChunkProblem.Reason.MISSING_BLOCKLIGHT, "y=" + y);
+            } else if (blocks != 4096) {
+                return context.problem(x, z, ChunkProblem.Reason.BAD_BLOCKS_LENGTH, "y=" + y + " длина " + blocks);
+            } else if (data != 2048) {
+                return context.problem(x, z, ChunkProblem.Reason.BAD_DATA_LENGTH, "y=" + y + " длина " + data);
+            } else if (blockLights != 2048) {
+                return context.problem(x, z, ChunkProblem.Reason.BAD_BLOCKLIGHT_LENGTH, "y=" + y + " длина " + blockLights);
+            } else if (skyLights != 2048) {
+                return context.problem(x, z, ChunkProblem.Reason.BAD_SKYLIGHT_LENGTH, "y=" + y + " длина " + skyLights);
+            } else if (add != ABSENT && add != 2048) {
+                return context.problem(x, z, ChunkProblem.Reason.BAD_ADD_LENGTH, "y=" + y + " длина " + add);
+            }
+        }
+        return null;
+    }
+
+    private static ChunkProblem checkFlattened(RegionContext context, int x, int z, Map<?, ?> section, Object y,
+                                               int skyLights, int blockLights) {
+        int blockStates = arrayLength(section.get("BlockStates"), ArrayLength.LONG_ARRAY);
+        if (blockStates != ABSENT && blockStates < MIN_BLOCK_STATES_LENGTH) {
+            return context.problem(x, z, ChunkProblem.Reason.BAD_BLOCK_STATES_LENGTH, "y=" + y + " длина " + blockStates);
+        } else if (blockLights != ABSENT && blockLights != 2048) {
+            return context.problem(x, z, ChunkProblem.Reason.BAD_BLOCKLIGHT_LENGTH, "y=" + y + " длина " + blockLights);
+        } else if (skyLights != ABSENT && skyLights != 2048) {
+            return context.problem(x, z, ChunkProblem.Reason.BAD_SKYLIGHT_LENGTH, "y=" + y + " длина " + skyLights);
+        }
+        return null;
+    }
+
+    /**
+     * @return имя первого массива секции, который лежит тегом не того типа, либо null
+     */
+    private static String wrongType(Map<?, ?> section) {
+        for (String name : BYTE_ARRAYS) {
+            if (arrayLength(section.get(name), ArrayLength.BYTE_ARRAY) == WRONG_TYPE) {
+                return name;
+            }
+        }
+        if (arrayLength(section.get("BlockStates"), ArrayLength.LONG_ARRAY) == WRONG_TYPE) {
+            return "BlockStates";
+        }
+        return null;
+    }
+
+    /**
+     * @param array массив целиком или его длина, если он был считан через {@link NBTProjection#length(String)}
+     * @param type  тип тега, которым должен быть массив, см. {@link ArrayLength}
+     * @return длина массива, {@link #ABSENT}, если массива нет, или {@link #WRONG_TYPE}, если это тег другого типа
+     */
+    private static int arrayLength(Object array, byte type) {
+        if (array == null) {
+            return ABSENT;
+        }
+        if (array instanceof ArrayLength) {
+            ArrayLength length = (ArrayLength) array;
+            return length.getType() == type ? length.getLength() : WRONG_TYPE;
+        }
+        if (array instanceof byte[] && type == ArrayLength.BYTE_ARRAY) {
+            return ((byte[]) array).length;
+        }
+        if (array instanceof long[] && type == ArrayLength.LONG_ARRAY) {
+            return ((long[]) array).length;
+        }
+        return WRONG_TYPE;
+    }
+}
@@ -0,0 +1,96 @@
+package ua.lokha.megachunkfixer2000;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkArchiveTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void restoreReturnsIdenticalChunks() throws Exception {
+        Random random = new Random(2000);
+        File file = new File(dir, "r.0.0.mca");
+        File archiveFile = new File(dir, "archive.dat");
+
+        Map<Integer, byte[]> records = new HashMap<>();
+        Map<Integer, Integer> timestamps = new HashMap<>();
+        try (RegionFile region = new RegionFile(file)) {
+            for (int i = 0; i < 40; i++) {
+                int x = i % 32;
+                int z = i / 32;
+                // есть чанки на несколько секторов и оба вида сжатия
+                int size = i % 5 == 0 ? 9000 + random.nextInt(5000) : 100 + random.nextInt(3000);
+                byte version = (byte) (i % 2 == 0 ? RegionFile.VERSION_DEFLATE : RegionFile.VERSION_GZIP);
+                records.put(x + z * 32, TestRegions.writeChunk(region, dir, random, x, z, size, version, 1600000000 + i));
+                timestamps.put(x + z * 32, 1600000000 + i);
+            }
+        }
+
+        try (RegionFile region = new RegionFile(file);
+             ChunkArchive archive = new ChunkArchive(archiveFile)) {
+            for (int index : records.keySet()) {
+                ChunkProblem problem = new ChunkProblem(region.getFileName(), index % 32, index / 32, ChunkProblem.Reason.WRONG_POS, "test");
+                assertTrue(archive.add(region, problem));
+                region.deleteChunk(index % 32, index / 32);
+            }
+            assertFalse(archive.add(region, new ChunkProblem(region.getFileName(), 31, 31, ChunkProblem.Reason.WRONG_POS, null)));
+            assertEquals(records.size(), archive.getChunks().get());
+        }
+
+        // на месте одного из удаленных чанков сервер уже создал новый
+        byte[] newer;
+        try (RegionFile region = new RegionFile(file)) {
+            assertNull(TestRegions.readChunk(file, 0, 0));
+            newer = TestRegions.writeChunk(region, dir, random, 0, 0, 500, (byte) RegionFile.VERSION_DEFLATE, 1700000000);
+        }
+
+        List<ChunkArchive.Entry> entries = ChunkArchive.readIndex(archiveFile);
+        assertEquals(records.size(), entries.size());
+        List<ChunkArchive.Entry> restored = ChunkArchive.restore(archiveFile, entries);
+        assertEquals(records.size() - 1, restored.size());
+
+        for (ChunkArchive.Entry entry : restored) {
+            int index = entry.getX() + entry.getZ() * 32;
+            assertEquals("WRONG_POS", entry.getReason());
+            assertArrayEquals(records.get(index), TestRegions.readChunk(file, entry.getX(), entry.getZ()), "чанк " + index);
+            assertEquals((int) timestamps.get(index), TestRegions.readTimestamp(file, entry.getX(), entry.getZ()), "время чанка " + index);
+        }
+        assertArrayEquals(newer, TestRegions.readChunk(file, 0, 0));
+        assertEquals(1700000000, TestRegions.readTimestamp(file, 0, 0));
+    }
+
+    @Test
+    void restoreRecreatesDeletedRegion() throws Exception {
+        Random random = new Random(2001);
+        File file = new File(dir, "region/r.1.0.mca");
+        file.getParentFile().mkdirs();
+        File archiveFile = new File(dir, "archive.dat");
+
+        byte[] record;
+        try (RegionFile region = new RegionFile(file);
+             ChunkArchive archive = new ChunkArchive(archiveFile)) {
+            record = TestRegions.writeChunk(region, dir, random, 5, 7, 2000, (byte) RegionFile.VERSION_DEFLATE, 1650000000);
+            archive.add(region, new ChunkProblem(region.getFileName(), 5, 7, ChunkProblem.Reason.STRUCTURE, null));
+        }
+        assertTrue(file.delete());
+        file.getParentFile().delete();
+
+        assertEquals(1, ChunkArchive.restore(archiveFile, ChunkArchive.readIndex(archiveFile)).size());
+        assertArrayEquals(record, TestRegions.readChunk(file, 5, 7));
+        assertEquals(1650000000, TestRegions.readTimestamp(file, 5, 7));
+    }
+}
@@ -0,0 +1,63 @@
+package ua.lokha.megachunkfixer2000;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RegionFileScanTest {
+
+    @TempDir
+    File dir;
+
+    /**
+     * Длина в заголовке чанка на пару байт больше его секторов, а сам чанк заканчивает чтение в 1 MB и файл
+     */
+    @Test
+    void lengthPastSectorsIsReadError() throws Exception {
+        Random random = new Random(2000);
+        File file = new File(dir, "r.0.0.mca");
+        byte[] small;
+        try (RegionFile region = new RegionFile(file)) {
+            small = TestRegions.writeChunk(region, dir, random, 0, 0, 1000, (byte) RegionFile.VERSION_DEFLATE, 1600000000);
+            TestRegions.writeChunk(region, dir, random, 1, 0, 255 * RegionFile.SECTOR_BYTES - 100,
+                    (byte) RegionFile.VERSION_DEFLATE, 1600000000);
+        }
+        assertEquals(RegionFile.SCAN_READ_BYTES, file.length() - 2 * RegionFile.SECTOR_BYTES);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(3L * RegionFile.SECTOR_BYTES);
+            raf.writeInt(255 * RegionFile.SECTOR_BYTES - 2);
+        }
+
+        for (boolean mapped : new boolean[]{false, true}) {
+            try (RegionFile region = new RegionFile(file, true, mapped)) {
+                boolean[] wanted = new boolean[RegionFile.SECTOR_INTS];
+                Arrays.fill(wanted, true);
+                Map<Integer, RegionFile.ChunkPayload> payloads = new HashMap<>();
+                for (RegionFile.ScannedChunk scanned : region.scanBySector(wanted)) {
+                    payloads.put(scanned.getX(), scanned.getPayload());
+                }
+                assertEquals(2, payloads.size());
+                assertNull(payloads.get(1), "mapped=" + mapped);
+                assertNull(region.readChunkPayload(1, 0), "mapped=" + mapped);
+
+                RegionFile.ChunkPayload payload = payloads.get(0);
+                assertNotNull(payload);
+                byte[] data = new byte[payload.getData().remaining()];
+                payload.getData().duplicate().get(data);
+                assertArrayEquals(Arrays.copyOfRange(small, 5, small.length), data);
+                payload.release();
+            }
+        }
+    }
+}
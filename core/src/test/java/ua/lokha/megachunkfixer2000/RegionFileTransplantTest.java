@@ -0,0 +1,97 @@
+package ua.lokha.megachunkfixer2000;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegionFileTransplantTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void transplantKeepsRecordAndTimestamp() throws Exception {
+        Random random = new Random(2000);
+        File sourceFile = new File(dir, "r.0.0.mca");
+        File targetFile = new File(dir, "r.1.0.mca");
+
+        byte[] gzip;
+        byte[] deflate;
+        try (RegionFile source = new RegionFile(sourceFile)) {
+            gzip = TestRegions.writeChunk(source, dir, random, 3, 4, 6000, (byte) RegionFile.VERSION_GZIP, 1600000001);
+            deflate = TestRegions.writeChunk(source, dir, random, 10, 20, 300, (byte) RegionFile.VERSION_DEFLATE, 1600000002);
+        }
+        long sourceLength = sourceFile.length();
+
+        try (RegionFile source = new RegionFile(sourceFile, true, false);
+             RegionFile target = new RegionFile(targetFile)) {
+            assertTrue(target.transplantChunk(source, 3, 4, 7, 8));
+            assertTrue(target.transplantChunk(source, 10, 20, 10, 20));
+            assertFalse(target.transplantChunk(source, 0, 0, 0, 0));
+        }
+
+        assertArrayEquals(gzip, TestRegions.readChunk(targetFile, 7, 8));
+        assertEquals(RegionFile.VERSION_GZIP, TestRegions.readChunk(targetFile, 7, 8)[4]);
+        assertEquals(1600000001, TestRegions.readTimestamp(targetFile, 7, 8));
+        assertArrayEquals(deflate, TestRegions.readChunk(targetFile, 10, 20));
+        assertEquals(1600000002, TestRegions.readTimestamp(targetFile, 10, 20));
+
+        // исходный регион не меняется
+        assertEquals(sourceLength, sourceFile.length());
+        assertArrayEquals(gzip, TestRegions.readChunk(sourceFile, 3, 4));
+        assertArrayEquals(deflate, TestRegions.readChunk(sourceFile, 10, 20));
+    }
+
+    @Test
+    void transplantChunksCreatesTarget() throws Exception {
+        Random random = new Random(2001);
+        File sourceFile = new File(dir, "r.0.0.mca");
+        File targetFile = new File(dir, "other/r.0.0.mca");
+
+        List<byte[]> records = new ArrayList<>();
+        List<RegionFile.ChunkMove> moves = new ArrayList<>();
+        try (RegionFile source = new RegionFile(sourceFile)) {
+            for (int i = 0; i < 10; i++) {
+                records.add(TestRegions.writeChunk(source, dir, random, i, 0, 100 + random.nextInt(8000),
+                        (byte) RegionFile.VERSION_DEFLATE, 1600000000 + i));
+                moves.add(new RegionFile.ChunkMove(sourceFile, i, 0, targetFile, 0, i));
+            }
+        }
+        moves.add(new RegionFile.ChunkMove(sourceFile, 31, 31, targetFile, 31, 31));
+
+        assertEquals(10, RegionFile.transplantChunks(moves));
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(records.get(i), TestRegions.readChunk(targetFile, 0, i));
+            assertEquals(1600000000 + i, TestRegions.readTimestamp(targetFile, 0, i));
+        }
+    }
+
+    @Test
+    void transplantToSameFileIsRejected() throws Exception {
+        Random random = new Random(2002);
+        File file = new File(dir, "r.0.0.mca");
+        byte[] record;
+        try (RegionFile region = new RegionFile(file)) {
+            record = TestRegions.writeChunk(region, dir, random, 1, 1, 1000, (byte) RegionFile.VERSION_DEFLATE, 1600000000);
+            assertThrows(IllegalArgumentException.class, () -> region.transplantChunk(region, 1, 1, 2, 2));
+        }
+        assertThrows(IllegalArgumentException.class, () -> RegionFile.transplantChunks(Collections.singletonList(
+                new RegionFile.ChunkMove(file, 1, 1, new File(dir, "./r.0.0.mca"), 2, 2))));
+
+        assertArrayEquals(record, TestRegions.readChunk(file, 1, 1));
+        try (RegionFile region = new RegionFile(file, true, false)) {
+            assertFalse(region.hasChunk(2, 2));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ua.lokha.megachunkfixer2000;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SectorAllocatorTest {
+
+    @Test
+    void allocateFreeMatchesReference() {
+        Random random = new Random(20000);
+        int size = 2000;
+        SectorAllocator allocator = new SectorAllocator(size);
+        boolean[] free = new boolean[size];
+        Arrays.fill(free, true);
+        List<int[]> allocated = new ArrayList<>();
+
+        for (int step = 0; step < 20000; step++) {
+            int op = random.nextInt(10);
+            if (op < 5) {
+                int count = random.nextInt(10) == 0 ? 200 + random.nextInt(200) : 1 + random.nextInt(8);
+                int expected = bestFit(free, count);
+                int start = allocator.allocate(count);
+                assertEquals(expected, start, "allocate(" + count + ") на шаге " + step);
+                if (start < 0) {
+                    start = allocator.grow(count);
+                    assertEquals(free.length, start);
+                    free = Arrays.copyOf(free, free.length + count);
+                }
+                Arrays.fill(free, start, start + count, false);
+                allocated.add(new int[]{start, count});
+            } else if (op < 9 && !allocated.isEmpty()) {
+                int[] run = allocated.remove(random.nextInt(allocated.size()));
+                allocator.free(run[0], run[1]);
+                Arrays.fill(free, run[0], run[0] + run[1], true);
+            } else {
+                // как при загрузке таблицы смещений: участок может пересекать занятые сектора и конец файла
+                int start = random.nextInt(free.length);
+                int count = 1 + random.nextInt(20);
+                allocator.markUsed(start, count);
+                Arrays.fill(free, start, Math.min(start + count, free.length), false);
+            }
+
+            assertEquals(free.length, allocator.size());
+            assertEquals(toBitSet(free), allocator.getFreeSectors(), "карта свободных секторов на шаге " + step);
+        }
+    }
+
+    @Test
+    void freeMergesNeighbours() {
+        SectorAllocator allocator = new SectorAllocator(10);
+        assertEquals(0, allocator.allocate(10));
+        allocator.free(2, 2);
+        allocator.free(6, 2);
+        allocator.free(4, 2);
+        assertEquals(-1, allocator.allocate(7));
+        assertEquals(2, allocator.allocate(6));
+    }
+
+    /* the shortest free run that fits, the first one among equal lengths; runs of 256+ sectors are one bucket */
+    private static int bestFit(boolean[] free, int count) {
+        int best = -1;
+        int bestLength = Integer.MAX_VALUE;
+        for (int i = 0; i < free.length; ) {
+            if (!free[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < free.length && free[i]) {
+                i++;
+            }
+            int length = Math.min(i - start, 256);
+            if (i - start >= count && length < bestLength) {
+                best = start;
+                bestLength = length;
+            }
+        }
+        return best;
+    }
+
+    private static BitSet toBitSet(boolean[] free) {
+        BitSet bits = new BitSet();
+        for (int i = 0; i < free.length; i++) {
+            if (free[i]) {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+}
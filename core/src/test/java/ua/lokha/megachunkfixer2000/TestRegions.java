@@ -0,0 +1,67 @@
+package ua.lokha.megachunkfixer2000;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Небольшие регионы для тестов: чанки записываются сырыми записями (длина, версия сжатия и данные),
+ * содержимое это случайные байты, NBT внутри не нужен
+ */
+class TestRegions {
+
+    /**
+     * Записать в регион чанк из {@code size} случайных байт с указанными версией сжатия и временем изменения
+     * @return запись чанка в том виде, в каком она должна лежать в файле
+     */
+    static byte[] writeChunk(RegionFile region, File dir, Random random, int x, int z, int size, byte version, int timestamp) throws IOException {
+        byte[] record = new byte[4 + 1 + size];
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putInt(size + 1).put(version);
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        buffer.put(data);
+
+        File temp = File.createTempFile("chunk", ".bin", dir);
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            channel.write(ByteBuffer.wrap(record), 0);
+            region.writeRawChunk(x, z, channel, 0, record.length, timestamp);
+        } finally {
+            temp.delete();
+        }
+        return record;
+    }
+
+    /**
+     * Прочитать запись чанка прямо из файла региона по таблице смещений, в обход {@link RegionFile}
+     * @return запись чанка, либо null, если чанка нет
+     */
+    static byte[] readChunk(File file, int x, int z) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek((x + z * 32) * 4L);
+            int offset = raf.readInt();
+            if (offset == 0) {
+                return null;
+            }
+            raf.seek((long) (offset >> 8) * RegionFile.SECTOR_BYTES);
+            byte[] record = new byte[4 + raf.readInt()];
+            raf.seek((long) (offset >> 8) * RegionFile.SECTOR_BYTES);
+            raf.readFully(record);
+            return record;
+        }
+    }
+
+    /**
+     * Прочитать время изменения чанка из заголовка файла региона
+     */
+    static int readTimestamp(File file, int x, int z) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(RegionFile.SECTOR_BYTES + (x + z * 32) * 4L);
+            return raf.readInt();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ua.lokha.megachunkfixer2000.rule;
+
+import org.junit.jupiter.api.Test;
+import ua.lokha.megachunkfixer2000.ChunkProblem;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PosRuleTest {
+
+    private final PosRule rule = new PosRule();
+    private final RegionContext context = new RegionContext(new File("region/r.1.-1.mca"), problem -> {
+    });
+
+    @Test
+    void levelCoordinates() {
+        assertNull(rule.check(context, 2, 3, level(pos(34, -29))));
+        assertEquals(ChunkProblem.Reason.WRONG_POS, rule.check(context, 2, 3, level(pos(0, 0))).getReason());
+    }
+
+    @Test
+    void levelWithoutCoordinatesIsCorrupted() {
+        assertEquals(ChunkProblem.Reason.WRONG_POS, rule.check(context, 2, 3, level(new HashMap<>())).getReason());
+
+        Map<String, Object> pos = pos(34, -29);
+        pos.put("zPos", "-29");
+        assertEquals(ChunkProblem.Reason.WRONG_POS, rule.check(context, 2, 3, level(pos)).getReason());
+    }
+
+    @Test
+    void rootCoordinates() {
+        // 1.18+: координаты в корне чанка
+        assertNull(rule.check(context, 2, 3, pos(34, -29)));
+        assertEquals(ChunkProblem.Reason.WRONG_POS, rule.check(context, 2, 3, pos(35, -29)).getReason());
+    }
+
+    @Test
+    void noCoordinatesAnywhere() {
+        assertNull(rule.check(context, 2, 3, new HashMap<>()));
+    }
+
+    private static Map<String, Object> pos(int x, int z) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("xPos", x);
+        map.put("zPos", z);
+        return map;
+    }
+
+    private static Map<String, Object> level(Map<String, Object> level) {
+        Map<String, Object> root = new HashMap<>();
+        root.put("Level", level);
+        return root;
+    }
+}
@@ -0,0 +1,96 @@
+package ua.lokha.megachunkfixer2000.rule;
+
+import org.junit.jupiter.api.Test;
+import ua.lokha.megachunkfixer2000.ChunkProblem;
+import ua.lokha.megachunkfixer2000.NBTProjection;
+import ua.lokha.megachunkfixer2000.NBTStreamReader;
+import ua.lokha.megachunkfixer2000.NBTStreamWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SectionsRuleTest {
+
+    private final SectionsRule rule = new SectionsRule();
+    private final List<ChunkProblem> reported = new ArrayList<>();
+    private final RegionContext context = new RegionContext(new File("region/r.0.0.mca"), reported::add);
+
+    @Test
+    void validSection() throws Exception {
+        assertNull(this.check(section()));
+        assertTrue(reported.isEmpty());
+    }
+
+    @Test
+    void badLengthAndMissingArrays() throws Exception {
+        Map<String, Object> section = section();
+        section.put("Blocks", new byte[100]);
+        assertEquals(ChunkProblem.Reason.BAD_BLOCKS_LENGTH, this.check(section).getReason());
+
+        section = section();
+        section.remove("SkyLight");
+        assertEquals(ChunkProblem.Reason.MISSING_SKYLIGHT, this.check(section).getReason());
+    }
+
+    @Test
+    void wrongTagTypeKeepsChunk() throws Exception {
+        Map<String, Object> section = section();
+        section.put("Blocks", new int[4096]);
+        assertNull(this.check(section));
+
+        section = section();
+        section.put("Data", 2048);
+        assertNull(this.check(section));
+
+        assertEquals(2, reported.size());
+        for (ChunkProblem problem : reported) {
+            assertEquals(ChunkProblem.Reason.BAD_SECTION, problem.getReason());
+        }
+    }
+
+    @Test
+    void noSectionsIsNotReported() throws Exception {
+        Map<String, Object> root = new HashMap<>();
+        root.put("DataVersion", 2860);
+        root.put("sections", new ArrayList<>());
+        assertNull(rule.check(context, 0, 0, this.readProjected(root)));
+        assertTrue(reported.isEmpty());
+    }
+
+    /* writes the chunk as NBT and reads it back through the rule's projection, like the fixer does */
+    private ChunkProblem check(Map<String, Object> section) throws Exception {
+        Map<String, Object> level = new HashMap<>();
+        level.put("Sections", new ArrayList<>(Collections.singletonList(section)));
+        Map<String, Object> root = new HashMap<>();
+        root.put("Level", level);
+        return rule.check(context, 0, 0, this.readProjected(root));
+    }
+
+    private Map<String, Object> readProjected(Map<String, Object> root) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NBTStreamWriter.write(out, root, false);
+        NBTProjection projection = new NBTProjection();
+        rule.declare(projection);
+        return NBTStreamReader.read(new ByteArrayInputStream(out.toByteArray()), projection);
+    }
+
+    private static Map<String, Object> section() {
+        Map<String, Object> section = new HashMap<>();
+        section.put("Y", (byte) 0);
+        section.put("Blocks", new byte[4096]);
+        section.put("Data", new byte[2048]);
+        section.put("SkyLight", new byte[2048]);
+        section.put("BlockLight", new byte[2048]);
+        return section;
+    }
+}